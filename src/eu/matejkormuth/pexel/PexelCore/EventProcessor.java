@@ -31,6 +31,7 @@ import org.bukkit.entity.Minecart;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Snowball;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockGrowEvent;
@@ -40,6 +41,7 @@ import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerDropItemEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
@@ -65,6 +67,8 @@ import eu.matejkormuth.pexel.PexelCore.bans.BanUtils;
 import eu.matejkormuth.pexel.PexelCore.chat.ChatManager;
 import eu.matejkormuth.pexel.PexelCore.chat.SubscribeMode;
 import eu.matejkormuth.pexel.PexelCore.core.Log;
+import eu.matejkormuth.pexel.PexelCore.core.MoveHandler;
+import eu.matejkormuth.pexel.PexelCore.core.MoveType;
 import eu.matejkormuth.pexel.PexelCore.core.StorageEngine;
 import eu.matejkormuth.pexel.PexelCore.menu.InventoryMenu;
 import eu.matejkormuth.pexel.PexelCore.util.Lang;
@@ -80,28 +84,16 @@ import eu.matejkormuth.pexel.PexelNetworking.Server;
 public class EventProcessor implements Listener {
     public EventProcessor() {
         Bukkit.getPluginManager().registerEvents(this, Pexel.getCore());
-    }
 
-    @EventHandler
-    private void onPlayerMove(final PlayerMoveEvent event) {
-        // FIXME: Temporarly removed.
-
-        if (event.getPlayer().isSprinting()) {
-            if (StorageEngine.getProfile(event.getPlayer().getUniqueId())
-                    .getParticleType() != null) {
-                for (double i = 0; i < 1.5; i += 0.20D) {
-                    Location diff = event.getTo()
-                            .subtract(event.getFrom())
-                            .multiply(1.2F);
-                    //StorageEngine.getProfile(event.getPlayer().getUniqueId())
-                    //        .getParticleType()
-                    //        .display(
-                    //                event.getFrom().subtract(diff).clone().add(0, i, 0),
-                    //                0.50F, 0.20F, 0.50F, 1, 8);
-                }
+        // Gates are checked only when player moves to another block.
+        Pexel.getMovePipeline().register(MoveType.BLOCK, new MoveHandler() {
+            @Override
+            public void onPlayerMove(final PlayerMoveEvent event, final MoveType type) {
+                StorageEngine.gateMove(event.getPlayer(), event.getFrom(), event.getTo());
             }
-        }
-
+        });
+        // FIXME: Sprint particles are temporarly removed. When they are enabled again, register SUB_BLOCK handler,
+        // that displays particles of player's profile behind sprinting player.
     }
 
     @EventHandler
@@ -128,7 +120,7 @@ public class EventProcessor implements Listener {
 
     @EventHandler
     private void onGrow(final BlockGrowEvent event) {
-        ProtectedArea area = Areas.findArea(event.getBlock().getLocation());
+        ProtectedArea area = Areas.findArea(event.getBlock());
         if (area != null) {
             event.setCancelled(true);
         }
@@ -136,7 +128,7 @@ public class EventProcessor implements Listener {
 
     @EventHandler
     private void onBlockBreak(final BlockBreakEvent event) {
-        if (!this.hasPermission(event.getBlock().getLocation(), event.getPlayer(),
+        if (!this.hasPermission(Areas.findArea(event.getBlock()), event.getPlayer(),
                 AreaFlag.BLOCK_BREAK))
             event.setCancelled(true);
     }
@@ -148,7 +140,7 @@ public class EventProcessor implements Listener {
 
     @EventHandler
     private void onBlockPlace(final BlockPlaceEvent event) {
-        if (!this.hasPermission(event.getBlock().getLocation(), event.getPlayer(),
+        if (!this.hasPermission(Areas.findArea(event.getBlock()), event.getPlayer(),
                 AreaFlag.BLOCK_PLACE))
             event.setCancelled(true);
     }
@@ -312,6 +304,19 @@ public class EventProcessor implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onPlayerPreLogin(final AsyncPlayerPreLoginEvent event) {
+        // Load profile before player joins, so main thread does not have to.
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED)
+            StorageEngine.prefetchProfile(event.getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onPlayerLoginMonitor(final PlayerLoginEvent event) {
+        if (event.getResult() != Result.ALLOWED)
+            StorageEngine.discardPrefetchedProfile(event.getPlayer().getUniqueId());
+    }
+
     @EventHandler
     private void onPlayerLogin(final PlayerLoginEvent event) {
         // Check for ban
@@ -346,7 +351,7 @@ public class EventProcessor implements Listener {
 
     @EventHandler
     private void onPlayerJoin(final PlayerJoinEvent event) {
-        // Load profile to memory or create empty profile.
+        // Use prefetched profile, load profile to memory or create empty profile.
         StorageEngine.loadProfile(event.getPlayer().getUniqueId());
         // Register chat channels.
         ChatManager.CHANNEL_GLOBAL.subscribe(event.getPlayer(), SubscribeMode.READ);
@@ -367,15 +372,19 @@ public class EventProcessor implements Listener {
         ChatManager.CHANNEL_GLOBAL.unsubscribe(event.getPlayer());
         ChatManager.CHANNEL_LOBBY.unsubscribe(event.getPlayer());
 
-        StorageEngine.__redirectEvent("PlayerQuitEvent", event);
-
         // Force save of player's profile.
         StorageEngine.saveProfile(event.getPlayer().getUniqueId());
+        StorageEngine.releaseProfile(event.getPlayer().getUniqueId());
+        StorageEngine.discardPrefetchedProfile(event.getPlayer().getUniqueId());
     }
 
     private boolean hasPermission(final Location location, final Player player,
             final AreaFlag flag) {
-        ProtectedArea area = Areas.findArea(location);
+        return this.hasPermission(Areas.findArea(location), player, flag);
+    }
+
+    private boolean hasPermission(final ProtectedArea area, final Player player,
+            final AreaFlag flag) {
         if (area != null) {
             if (!area.getPlayerFlag(flag, player.getUniqueId())) {
                 // if (area.getPlayerFlag(AreaFlag.AREA_CHAT_PERMISSIONDENIED,
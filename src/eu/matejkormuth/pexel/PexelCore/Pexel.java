@@ -25,17 +25,26 @@ import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
 
+import eu.matejkormuth.pexel.PexelCore.areas.PlayerAreaTracker;
+import eu.matejkormuth.pexel.PexelCore.arenas.ArenaBlockCapture;
+import eu.matejkormuth.pexel.PexelCore.arenas.ArenaEventRouter;
+import eu.matejkormuth.pexel.PexelCore.arenas.ArenaFactory;
 import eu.matejkormuth.pexel.PexelCore.bans.BanStorage;
 import eu.matejkormuth.pexel.PexelCore.core.Achievements;
 import eu.matejkormuth.pexel.PexelCore.core.Auth;
 import eu.matejkormuth.pexel.PexelCore.core.MagicClock;
+import eu.matejkormuth.pexel.PexelCore.core.MovePipeline;
 import eu.matejkormuth.pexel.PexelCore.core.PlayerProfile;
+import eu.matejkormuth.pexel.PexelCore.core.ProfileStore;
+import eu.matejkormuth.pexel.PexelCore.core.ProfileWriter;
 import eu.matejkormuth.pexel.PexelCore.core.Scheduler;
 import eu.matejkormuth.pexel.PexelCore.core.StorageEngine;
 import eu.matejkormuth.pexel.PexelCore.core.ValidityChecker;
 import eu.matejkormuth.pexel.PexelCore.matchmaking.Matchmaking;
 import eu.matejkormuth.pexel.PexelCore.matchmaking.MatchmakingSignUpdater;
 import eu.matejkormuth.pexel.PexelCore.minigame.Minigame;
+import eu.matejkormuth.pexel.PexelCore.rollback.JournalStore;
+import eu.matejkormuth.pexel.PexelCore.rollback.RollbackScheduler;
 import eu.matejkormuth.pexel.PexelCore.util.AsyncWorker;
 import eu.matejkormuth.pexel.PexelCore.util.PlayerFreezer;
 
@@ -82,6 +91,15 @@ public final class Pexel {
         return Pexel.instance.achievementsClient;
     }
     
+    /**
+     * Returns player move pipeline.
+     * 
+     * @return move pipeline
+     */
+    public static final MovePipeline getMovePipeline() {
+        return Pexel.instance.movePipeline;
+    }
+    
     /**
      * Returns player freezer.
      * 
@@ -91,6 +109,51 @@ public final class Pexel {
         return Pexel.instance.freezer;
     }
     
+    /**
+     * Returns player area tracker.
+     * 
+     * @return player area tracker
+     */
+    public static final PlayerAreaTracker getAreaTracker() {
+        return Pexel.instance.areaTracker;
+    }
+    
+    /**
+     * Returns arena event router.
+     * 
+     * @return arena event router
+     */
+    public static final ArenaEventRouter getArenaRouter() {
+        return Pexel.instance.arenaRouter;
+    }
+    
+    /**
+     * Returns block change capture of arenas.
+     * 
+     * @return block capture
+     */
+    public static final ArenaBlockCapture getBlockCapture() {
+        return Pexel.instance.blockCapture;
+    }
+    
+    /**
+     * Returns global scheduler of block rollbacks.
+     * 
+     * @return rollback scheduler
+     */
+    public static final RollbackScheduler getRollbackScheduler() {
+        return Pexel.instance.rollbackScheduler;
+    }
+    
+    /**
+     * Returns store of persistent rollback journals.
+     * 
+     * @return journal store
+     */
+    public static final JournalStore getJournalStore() {
+        return Pexel.instance.journalStore;
+    }
+    
     /**
      * Retruns player's profile.
      * 
@@ -147,6 +210,24 @@ public final class Pexel {
         return Pexel.instance.asyncWorker;
     }
     
+    /**
+     * Returns player profile store.
+     * 
+     * @return profile store
+     */
+    public final static ProfileStore getProfileStore() {
+        return Pexel.instance.profileStore;
+    }
+    
+    /**
+     * Returns player profile writer.
+     * 
+     * @return profile writer
+     */
+    public final static ProfileWriter getProfileWriter() {
+        return Pexel.instance.profileWriter;
+    }
+    
     /**
      * Return's hub location.
      * 
@@ -200,6 +281,20 @@ public final class Pexel {
         Pexel.getMatchmaking().registerMinigame(minigame);
     }
     
+    /**
+     * Registers minigame to Pexel and creates its arenas on all loaded maps of the minigame.
+     * 
+     * @param minigame
+     *            specififed minigame to register.
+     * @param factory
+     *            factory of minigame's arenas
+     */
+    public static final void registerMinigame(final Minigame minigame,
+            final ArenaFactory factory) {
+        Pexel.registerMinigame(minigame);
+        StorageEngine.getMapCatalog().registerFactory(minigame.getName(), factory);
+    }
+    
     /**
      * Tries to register specified object to Pexel. If can't register object, throws RuntimeException.
      * 
@@ -19,6 +19,7 @@
 package eu.matejkormuth.pexel.PexelCore;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
@@ -26,6 +27,7 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
@@ -37,6 +39,9 @@ import org.bukkit.plugin.messaging.PluginMessageListener;
 import com.sun.net.httpserver.HttpServer;
 
 import eu.matejkormuth.pexel.PexelCore.areas.Areas;
+import eu.matejkormuth.pexel.PexelCore.areas.PlayerAreaTracker;
+import eu.matejkormuth.pexel.PexelCore.arenas.ArenaBlockCapture;
+import eu.matejkormuth.pexel.PexelCore.arenas.ArenaEventRouter;
 import eu.matejkormuth.pexel.PexelCore.bans.BanListServer;
 import eu.matejkormuth.pexel.PexelCore.bans.BanStorage;
 import eu.matejkormuth.pexel.PexelCore.commands.AlternativeCommands;
@@ -57,14 +62,21 @@ import eu.matejkormuth.pexel.PexelCore.commands.UnfriendCommand;
 import eu.matejkormuth.pexel.PexelCore.core.Achievements;
 import eu.matejkormuth.pexel.PexelCore.core.Auth;
 import eu.matejkormuth.pexel.PexelCore.core.AutoMessage;
+import eu.matejkormuth.pexel.PexelCore.core.Checkpoint;
 import eu.matejkormuth.pexel.PexelCore.core.License;
 import eu.matejkormuth.pexel.PexelCore.core.Log;
 import eu.matejkormuth.pexel.PexelCore.core.MagicClock;
+import eu.matejkormuth.pexel.PexelCore.core.MovePipeline;
+import eu.matejkormuth.pexel.PexelCore.core.Paths;
+import eu.matejkormuth.pexel.PexelCore.core.ProfileStore;
+import eu.matejkormuth.pexel.PexelCore.core.ProfileWriter;
 import eu.matejkormuth.pexel.PexelCore.core.Scheduler;
 import eu.matejkormuth.pexel.PexelCore.core.StorageEngine;
 import eu.matejkormuth.pexel.PexelCore.core.UpdatedParts;
 import eu.matejkormuth.pexel.PexelCore.matchmaking.Matchmaking;
 import eu.matejkormuth.pexel.PexelCore.matchmaking.MatchmakingSignUpdater;
+import eu.matejkormuth.pexel.PexelCore.rollback.JournalStore;
+import eu.matejkormuth.pexel.PexelCore.rollback.RollbackScheduler;
 import eu.matejkormuth.pexel.PexelCore.util.AsyncWorker;
 import eu.matejkormuth.pexel.PexelCore.util.PlayerFreezer;
 import eu.matejkormuth.pexel.PexelNetworking.PexelMasterServer;
@@ -74,14 +86,34 @@ import eu.matejkormuth.pexel.PexelNetworking.PexelServerClient;
  * Bukkit plugin class.
  */
 public class PexelCore extends JavaPlugin implements PluginMessageListener {
+    /**
+     * Time budget of shutdown checkpoint in milliseconds.
+     */
+    private static final long     CHECKPOINT_BUDGET = 30 * 1000;
     /**
      * Pexel matchmaking.
      */
     public Matchmaking            matchmaking;
+    /**
+     * Player move pipeline.
+     */
+    public MovePipeline           movePipeline;
     /**
      * Player freezer.
      */
     public PlayerFreezer          freezer;
+    /**
+     * Player area tracker.
+     */
+    public PlayerAreaTracker      areaTracker;
+    /**
+     * Arena event router.
+     */
+    public ArenaEventRouter       arenaRouter;
+    /**
+     * Block change capture of arenas.
+     */
+    public ArenaBlockCapture      blockCapture;
     /**
      * Eent processor.
      */
@@ -106,6 +138,14 @@ public class PexelCore extends JavaPlugin implements PluginMessageListener {
      * AsyncWorker object.
      */
     public AsyncWorker            asyncWorker;
+    /**
+     * Player profile store.
+     */
+    public ProfileStore           profileStore;
+    /**
+     * Player profile writer.
+     */
+    public ProfileWriter          profileWriter;
     /**
      * Pexel auth object.
      */
@@ -130,6 +170,18 @@ public class PexelCore extends JavaPlugin implements PluginMessageListener {
      * Pexel matchmaking sign updater.
      */
     public MatchmakingSignUpdater matchmakingSignUpdater;
+    /**
+     * Global scheduler of block rollbacks.
+     */
+    public RollbackScheduler      rollbackScheduler;
+    /**
+     * Persistent journals of arena block changes.
+     */
+    public JournalStore           journalStore;
+    /**
+     * Shutdown checkpoint of all subsystems.
+     */
+    public Checkpoint             checkpoint;
     
     @SuppressWarnings("deprecation")
     @Override
@@ -143,13 +195,18 @@ public class PexelCore extends JavaPlugin implements PluginMessageListener {
         this.banStorage.save();
         this.serv.stop(0);
         
-        this.matchmakingSignUpdater.stop();
-        
-        //Save important data.
-        StorageEngine.saveData(); //oldway
+        // Restore arenas, that are still rolling back.
+        this.rollbackScheduler.shutdown();
         
-        StorageEngine.saveArenas();
-        StorageEngine.saveProfiles();
+        // Finish periodic arena saves, so they can't overwrite checkpoint.
+        StorageEngine.shutdown();
+        //Save important data of all subsystems in parallel.
+        Map<String, Checkpoint.Result> results = this.checkpoint.run(PexelCore.CHECKPOINT_BUDGET);
+        // Writer, that did not finish, may still append to store. Records are CRC checked, so leaving it open is safe.
+        if (results.get("profiles") == Checkpoint.Result.DONE)
+            this.profileStore.close();
+        else
+            Log.warn("Profile store was not closed, because its checkpoint did not finish!");
         
         this.asyncWorker.shutdown();
         
@@ -172,8 +229,16 @@ public class PexelCore extends JavaPlugin implements PluginMessageListener {
         Pexel.initialize(this);
         this.createDirectoryStructure();
         
+        this.movePipeline = new MovePipeline();
+        
         this.freezer = new PlayerFreezer();
         
+        this.areaTracker = new PlayerAreaTracker();
+        
+        this.arenaRouter = new ArenaEventRouter();
+        
+        this.blockCapture = new ArenaBlockCapture();
+        
         this.scheduler = new Scheduler();
         
         try {
@@ -211,9 +276,31 @@ public class PexelCore extends JavaPlugin implements PluginMessageListener {
         
         this.magicClock = new MagicClock();
         
+        this.rollbackScheduler = new RollbackScheduler();
+        
+        // Roll back arenas damaged by crash or restart before they are registered.
+        this.journalStore = new JournalStore(new File(Paths.rollbackJournals()));
+        this.journalStore.recover();
+        
         this.asyncWorker = new AsyncWorker(3);
         this.asyncWorker.start();
         
+        this.profileStore = new ProfileStore(new File(Paths.profileStore()));
+        try {
+            this.profileStore.open();
+            // One-shot migration of old YAML profiles.
+            this.profileStore.migrate(new File(Paths.yamlProfiles()));
+            StorageEngine.getSocialGraph().load(this.profileStore);
+        } catch (IOException e) {
+            // Store stays closed, so players get placeholder profiles, that are never saved over stored ones.
+            Log.addProblem("Can't open profile store, player profiles will not be loaded or saved: "
+                    + e.toString());
+            e.printStackTrace();
+        }
+        
+        // Flush changed profiles every minute.
+        this.profileWriter = new ProfileWriter(this.profileStore, 20 * 60);
+        
         this.eventProcessor = new EventProcessor();
         
         // Bukkit way
@@ -237,6 +324,25 @@ public class PexelCore extends JavaPlugin implements PluginMessageListener {
         StorageEngine.initialize(this);
         StorageEngine.loadData();
         
+        this.checkpoint = new Checkpoint(new File(Paths.checkpointReport()));
+        this.checkpoint.checkLastReport();
+        this.checkpoint.register("data", new Checkpoint.Participant() {
+            @Override
+            public Checkpoint.Writer snapshot() {
+                return StorageEngine.snapshotData();
+            }
+        });
+        this.checkpoint.register("arenas", new Checkpoint.Participant() {
+            @Override
+            public Checkpoint.Writer snapshot() {
+                return StorageEngine.snapshotArenas();
+            }
+        });
+        this.checkpoint.register("profiles", this.profileWriter);
+        this.checkpoint.register("journals", this.journalStore);
+        if (this.matchmakingSignUpdater != null)
+            this.checkpoint.register("signs", this.matchmakingSignUpdater);
+        
         Log.___prblm_stp();
         
         new AlternativeCommands();
@@ -248,6 +354,9 @@ public class PexelCore extends JavaPlugin implements PluginMessageListener {
         
         HardCoded.main();
         
+        // Areas are registered now, find players in them.
+        this.areaTracker.refreshAll();
+        
         try {
             new PNBroadcastServer();
         } catch (Exception e) {
@@ -286,8 +395,10 @@ public class PexelCore extends JavaPlugin implements PluginMessageListener {
         created |= new File(path + "/arenas").mkdirs();
         created |= new File(path + "/cache").mkdirs();
         created |= new File(path + "/records").mkdirs();
-        created |= new File(path + "/profiles").mkdirs();
+        created |= new File(path + "/profilestore").mkdirs();
         created |= new File(path + "/clips").mkdirs();
+        created |= new File(path + "/snapshots").mkdirs();
+        created |= new File(path + "/journals").mkdirs();
         if (created)
             Log.info("Directory structure expanded!");
     }
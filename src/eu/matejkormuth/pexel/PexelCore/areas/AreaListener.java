@@ -0,0 +1,49 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.areas;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Interface for objects, that want to be notified when players enter or leave areas.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public interface AreaListener {
+    /**
+     * Called when player enters specified area.
+     * 
+     * @param player
+     *            player that entered area
+     * @param area
+     *            entered area
+     */
+    public void onAreaEnter(Player player, ProtectedArea area);
+    
+    /**
+     * Called when player leaves specified area (by moving, teleporting or disconnecting).
+     * 
+     * @param player
+     *            player that left area
+     * @param area
+     *            left area
+     */
+    public void onAreaLeave(Player player, ProtectedArea area);
+}
@@ -19,6 +19,7 @@
 package eu.matejkormuth.pexel.PexelCore.areas;
 
 import org.bukkit.Location;
+import org.bukkit.block.Block;
 
 import eu.matejkormuth.pexel.PexelCore.core.StorageEngine;
 
@@ -30,17 +31,28 @@ import eu.matejkormuth.pexel.PexelCore.core.StorageEngine;
  */
 public class Areas {
     /**
-     * Tries to find arena by specified lcoation, if not found, returns null.
+     * Tries to find arena by specified lcoation, if not found, returns null. If more areas overlap at specified
+     * location, the most specific (smallest) one is returned.
      * 
      * @param location
      *            location to search for area
      * @return area that was find at specified location
      */
     public static final ProtectedArea findArea(final Location location) {
-        for (ProtectedArea area : StorageEngine.getAreas().values())
-            if (area.getRegion().intersects(location))
-                return area;
-        return null;
+        return StorageEngine.getAreaIndex().find(location);
+    }
+    
+    /**
+     * Tries to find area by specified block, if not found, returns null. Unlike {@link #findArea(Location)} does not
+     * need the block's location object.
+     * 
+     * @param block
+     *            block to search for area
+     * @return area that was find at specified block
+     */
+    public static final ProtectedArea findArea(final Block block) {
+        return StorageEngine.getAreaIndex().find(block.getWorld(), block.getX(),
+                block.getY(), block.getZ());
     }
     
     /**
@@ -23,10 +23,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.potion.PotionEffect;
 import org.bukkit.potion.PotionEffectType;
 
-import eu.matejkormuth.pexel.PexelCore.Pexel;
 import eu.matejkormuth.pexel.PexelCore.core.Region;
-import eu.matejkormuth.pexel.PexelCore.core.Updatable;
-import eu.matejkormuth.pexel.PexelCore.core.UpdatedParts;
 
 /**
  * Lobby is protected area with some special functions.
@@ -34,7 +31,13 @@ import eu.matejkormuth.pexel.PexelCore.core.UpdatedParts;
  * @author Mato Kormuth
  * 
  */
-public class Lobby extends ProtectedArea implements Updatable {
+public class Lobby extends ProtectedArea {
+    /**
+     * Duration of lobby potion effects in ticks. Effects are refreshed while player moves in lobby, so they expire
+     * shortly after plugin is disabled.
+     */
+    private static final int EFFECT_DURATION = 20 * 60;
+    
     /**
      * Creates new lobby object with specified name and region.
      * 
@@ -48,17 +51,14 @@ public class Lobby extends ProtectedArea implements Updatable {
         this.setGlobalFlag(AreaFlag.BLOCK_BREAK, false);
         this.setGlobalFlag(AreaFlag.BLOCK_PLACE, false);
         this.setGlobalFlag(AreaFlag.PLAYER_GETDAMAGE, false);
-        //Wierd call, isn't it?
-        this.updateStart();
     }
     
     /**
      * Location of lobby spawn.
      */
     private Location lobbySpawn;
-    private int      taskId        = 0;
     /**
-     * How often should lobby check for players.
+     * How often should lobby check for players. Not used, lobby is updated by {@link PlayerAreaTracker}.
      */
     private long     checkInterval = 20; //40 ticks = 2 second.
     /**
@@ -85,34 +85,69 @@ public class Lobby extends ProtectedArea implements Updatable {
     }
     
     /**
-     * Updates players. Adds potion effects and teleports them if needed.
+     * Adds lobby potion effects to player, that entered this lobby.
      */
-    private void updatePlayers() {
-        for (Player player : this.getRegion().getPlayersXZ()) {
-            //Lobby potion enhantsments.
-            player.addPotionEffect(new PotionEffect(PotionEffectType.SPEED, 20 * 30, 2));
-            player.addPotionEffect(new PotionEffect(PotionEffectType.JUMP, 20 * 30, 1));
-            
-            //In-void lobby teleport.
-            if (player.getLocation().getY() < this.thresholdY)
-                player.teleport(this.lobbySpawn);
-        }
+    @Override
+    public void onPlayerEnter(final Player player) {
+        //Lobby potion enhantsments.
+        Lobby.addEffect(player, PotionEffectType.SPEED, 2);
+        Lobby.addEffect(player, PotionEffectType.JUMP, 1);
     }
     
+    /**
+     * Removes lobby potion effects from player, that left this lobby. Effects from other sources are kept.
+     */
     @Override
-    public void updateStart() {
-        UpdatedParts.registerPart(this);
-        this.taskId = Pexel.getScheduler().scheduleSyncRepeatingTask(new Runnable() {
-            @Override
-            public void run() {
-                Lobby.this.updatePlayers();
-            }
-        }, 0, this.checkInterval);
+    public void onPlayerLeave(final Player player) {
+        Lobby.removeEffect(player, PotionEffectType.SPEED, 2);
+        Lobby.removeEffect(player, PotionEffectType.JUMP, 1);
     }
     
+    /**
+     * Refreshes lobby potion effects and teleports player, that fell under threshold Y or out through bottom of lobby,
+     * to lobby spawn.
+     */
     @Override
-    public void updateStop() {
-        Pexel.getScheduler().cancelTask(this.taskId);
+    public void onPlayerMove(final Player player, final Location from, final Location to) {
+        //In-void lobby teleport. Checked in whole XZ column, because falling player leaves region.
+        if (this.lobbySpawn != null && this.region.intersectsXZ(to)
+                && (to.getY() < this.thresholdY || to.getY() < this.region.getMinY())) {
+            player.teleport(this.lobbySpawn);
+        }
+        else if (this.region.intersects(to)) {
+            Lobby.addEffect(player, PotionEffectType.SPEED, 2);
+            Lobby.addEffect(player, PotionEffectType.JUMP, 1);
+        }
+    }
+    
+    /**
+     * Adds lobby effect, if player has no effect of this type, or refreshes it, if it is lobby effect, that expires
+     * soon.
+     */
+    private static void addEffect(final Player player, final PotionEffectType type,
+            final int amplifier) {
+        PotionEffect active = Lobby.getEffect(player, type);
+        if (active == null || Lobby.isLobbyEffect(active, amplifier)
+                && active.getDuration() < EFFECT_DURATION / 2)
+            player.addPotionEffect(new PotionEffect(type, EFFECT_DURATION, amplifier), true);
+    }
+    
+    private static void removeEffect(final Player player, final PotionEffectType type,
+            final int amplifier) {
+        PotionEffect active = Lobby.getEffect(player, type);
+        if (active != null && Lobby.isLobbyEffect(active, amplifier))
+            player.removePotionEffect(type);
+    }
+    
+    private static PotionEffect getEffect(final Player player, final PotionEffectType type) {
+        for (PotionEffect effect : player.getActivePotionEffects())
+            if (effect.getType().equals(type))
+                return effect;
+        return null;
+    }
+    
+    private static boolean isLobbyEffect(final PotionEffect effect, final int amplifier) {
+        return effect.getAmplifier() == amplifier && effect.getDuration() <= EFFECT_DURATION;
     }
     
     /**
@@ -123,16 +158,20 @@ public class Lobby extends ProtectedArea implements Updatable {
     }
     
     /**
+     * @deprecated lobby does not check players periodically anymore.
      * @return the checkInterval
      */
+    @Deprecated
     public long getCheckInterval() {
         return this.checkInterval;
     }
     
     /**
+     * @deprecated lobby does not check players periodically anymore.
      * @param checkInterval
      *            the checkInterval to set
      */
+    @Deprecated
     public void setCheckInterval(final long checkInterval) {
         this.checkInterval = checkInterval;
     }
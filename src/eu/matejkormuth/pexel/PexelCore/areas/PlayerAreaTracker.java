@@ -0,0 +1,189 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.areas;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import eu.matejkormuth.pexel.PexelCore.Pexel;
+import eu.matejkormuth.pexel.PexelCore.core.MoveType;
+
+/**
+ * Keeps track of area, that each online player is in. Area is looked up only when player's block coordinates change
+ * and {@link AreaListener}s and the areas themselves are notified about enters and leaves. Moves and teleports are
+ * handled on monitor priority, so area changes only for moves, that were not cancelled by other listeners.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class PlayerAreaTracker implements Listener {
+    /**
+     * Current area of each player, that is in some area.
+     */
+    private final Map<UUID, ProtectedArea> current   = new HashMap<UUID, ProtectedArea>();
+    /**
+     * Registered listeners.
+     */
+    private final List<AreaListener>       listeners = new ArrayList<AreaListener>();
+    
+    public PlayerAreaTracker() {
+        Bukkit.getPluginManager().registerEvents(this, Pexel.getCore());
+    }
+    
+    /**
+     * Registers listener, that will be notified about area enters and leaves.
+     * 
+     * @param listener
+     *            listener to register
+     */
+    public void addListener(final AreaListener listener) {
+        this.listeners.add(listener);
+    }
+    
+    /**
+     * Unregisters specified listener.
+     * 
+     * @param listener
+     *            listener to unregister
+     */
+    public void removeListener(final AreaListener listener) {
+        this.listeners.remove(listener);
+    }
+    
+    /**
+     * Returns area, that specified player is currently in, or null.
+     * 
+     * @param player
+     *            player
+     * @return current area of player
+     */
+    public ProtectedArea getArea(final Player player) {
+        return this.current.get(player.getUniqueId());
+    }
+    
+    /**
+     * Returns whether is specified player in specified area.
+     * 
+     * @param player
+     *            player
+     * @param area
+     *            area
+     * @return true if the player is in area
+     */
+    public boolean isInArea(final Player player, final ProtectedArea area) {
+        return this.current.get(player.getUniqueId()) == area;
+    }
+    
+    /**
+     * Looks up area of player at his current location. Should be called after areas are registered or removed while
+     * players are online.
+     * 
+     * @param player
+     *            player to update
+     */
+    public void refresh(final Player player) {
+        this.update(player, player.getLocation());
+    }
+    
+    /**
+     * Looks up area of all online players. Should be called after areas are registered or removed while players are
+     * online.
+     */
+    public void refreshAll() {
+        for (Player player : Bukkit.getOnlinePlayers())
+            this.refresh(player);
+    }
+    
+    /**
+     * Looks up area of player at specified location and fires events if the area changed. Returns previous area.
+     */
+    private ProtectedArea update(final Player player, final Location location) {
+        ProtectedArea area = Areas.findArea(location);
+        ProtectedArea old = area == null ? this.current.remove(player.getUniqueId())
+                : this.current.put(player.getUniqueId(), area);
+        
+        if (old != area) {
+            if (old != null)
+                this.fireLeave(player, old);
+            if (area != null)
+                this.fireEnter(player, area);
+        }
+        return old;
+    }
+    
+    private void fireEnter(final Player player, final ProtectedArea area) {
+        area.onPlayerEnter(player);
+        for (AreaListener listener : this.listeners)
+            listener.onAreaEnter(player, area);
+    }
+    
+    private void fireLeave(final Player player, final ProtectedArea area) {
+        area.onPlayerLeave(player);
+        for (AreaListener listener : this.listeners)
+            listener.onAreaLeave(player, area);
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onPlayerMove(final PlayerMoveEvent event) {
+        if (!MoveType.of(event.getFrom(), event.getTo()).includes(MoveType.BLOCK))
+            return;
+        
+        ProtectedArea old = this.update(event.getPlayer(), event.getTo());
+        // Area, that player was in, handles the move (even if player left it).
+        if (old != null)
+            old.onPlayerMove(event.getPlayer(), event.getFrom(), event.getTo());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onPlayerTeleport(final PlayerTeleportEvent event) {
+        this.update(event.getPlayer(), event.getTo());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onPlayerRespawn(final PlayerRespawnEvent event) {
+        this.update(event.getPlayer(), event.getRespawnLocation());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onPlayerJoin(final PlayerJoinEvent event) {
+        this.refresh(event.getPlayer());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onPlayerQuit(final PlayerQuitEvent event) {
+        ProtectedArea old = this.current.remove(event.getPlayer().getUniqueId());
+        if (old != null)
+            this.fireLeave(event.getPlayer(), old);
+    }
+}
@@ -18,14 +18,22 @@
 // @formatter:on
 package eu.matejkormuth.pexel.PexelCore.areas;
 
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
 import eu.matejkormuth.pexel.PexelCore.core.Region;
 
 /**
  * Used for handling protected areas.
+ * <br/>
+ * Flags are stored as bitsets (one bit per {@link AreaFlag}). Setters compile effective flags of area and of each
+ * player with overrides, so reading a flag is a single mask test.
  * 
  * @author Mato Kormuth
  * 
@@ -34,41 +42,61 @@ public class ProtectedArea {
     /**
      * Map of default values for flags.
      */
-    public static final Map<AreaFlag, Boolean>            defaultFlags = new HashMap<AreaFlag, Boolean>();
+    public static final Map<AreaFlag, Boolean> defaultFlags;
+    /**
+     * Default values for flags as bitset.
+     */
+    private static final int                   DEFAULT_FLAGS;
     
     //Initialization of static values.
     static {
-        ProtectedArea.defaultFlags.put(AreaFlag.BLOCK_BREAK, false);
-        ProtectedArea.defaultFlags.put(AreaFlag.BLOCK_PLACE, false);
-        ProtectedArea.defaultFlags.put(AreaFlag.PLAYER_GETDAMAGE, false);
-        ProtectedArea.defaultFlags.put(AreaFlag.PLAYER_DODAMAGE, false);
-        ProtectedArea.defaultFlags.put(AreaFlag.PLAYER_DROPITEM, false);
-        ProtectedArea.defaultFlags.put(AreaFlag.PLAYER_STARVATION, false);
-        ProtectedArea.defaultFlags.put(AreaFlag.AREA_CHAT_GOODBYE, true);
-        ProtectedArea.defaultFlags.put(AreaFlag.AREA_CHAT_PERMISSIONDENIED, true);
-        ProtectedArea.defaultFlags.put(AreaFlag.AREA_CHAT_WELCOME, true);
+        Map<AreaFlag, Boolean> defaults = new EnumMap<AreaFlag, Boolean>(AreaFlag.class);
+        defaults.put(AreaFlag.BLOCK_BREAK, false);
+        defaults.put(AreaFlag.BLOCK_PLACE, false);
+        defaults.put(AreaFlag.PLAYER_GETDAMAGE, false);
+        defaults.put(AreaFlag.PLAYER_DODAMAGE, false);
+        defaults.put(AreaFlag.PLAYER_DROPITEM, false);
+        defaults.put(AreaFlag.PLAYER_STARVATION, false);
+        defaults.put(AreaFlag.AREA_CHAT_GOODBYE, true);
+        defaults.put(AreaFlag.AREA_CHAT_PERMISSIONDENIED, true);
+        defaults.put(AreaFlag.AREA_CHAT_WELCOME, true);
+        defaultFlags = Collections.unmodifiableMap(defaults);
+        
+        int mask = 0;
+        for (Map.Entry<AreaFlag, Boolean> entry : defaults.entrySet())
+            if (entry.getValue())
+                mask |= ProtectedArea.bit(entry.getKey());
+        DEFAULT_FLAGS = mask;
     }
     
     /**
      * Area region
      */
-    protected Region                                      region;
+    protected Region                           region;
+    /**
+     * Bits of global flags, that were set on this area.
+     */
+    private int                                globalSet     = 0;
     /**
-     * Global area flags.
+     * Values of global flags, that were set on this area.
      */
-    protected final Map<AreaFlag, Boolean>                globalFlags  = new HashMap<AreaFlag, Boolean>();
+    private int                                globalValues  = 0;
     /**
-     * Player area flags.
+     * Compiled effective global flags.
      */
-    protected final Map<UUID, HashMap<AreaFlag, Boolean>> playerFlags  = new HashMap<UUID, HashMap<AreaFlag, Boolean>>();
+    private volatile int                       globalFlags   = ProtectedArea.DEFAULT_FLAGS;
+    /**
+     * Compiled player flags. Never modified, setters replace whole map.
+     */
+    private volatile Map<UUID, PlayerFlags>    playerFlags   = Collections.emptyMap();
     /**
      * Owner of area.
      */
-    protected AreaOwner                                   owner;
+    protected AreaOwner                        owner;
     /**
      * Name of area.
      */
-    protected final String                                areaName;
+    protected final String                     areaName;
     
     /**
      * Creates new area with specified name.
@@ -86,14 +114,7 @@ public class ProtectedArea {
      * @param flag
      */
     public boolean getGlobalFlag(final AreaFlag flag) {
-        if (this.globalFlags.get(flag) == null)
-            if (ProtectedArea.defaultFlags.get(flag) == null)
-                return false;
-            else
-                return ProtectedArea.defaultFlags.get(flag);
-        else
-            return this.globalFlags.get(flag);
-        
+        return (this.globalFlags & ProtectedArea.bit(flag)) != 0;
     }
     
     /**
@@ -103,26 +124,11 @@ public class ProtectedArea {
      * @param player
      */
     public boolean getPlayerFlag(final AreaFlag flag, final UUID player) {
-        if (this.playerFlags.containsKey(player))
-            if (this.playerFlags.get(player).get(flag) == null)
-                if (this.globalFlags.get(flag) == null)
-                    if (ProtectedArea.defaultFlags.get(flag) == null)
-                        return false;
-                    else
-                        return ProtectedArea.defaultFlags.get(flag);
-                else
-                    return this.globalFlags.get(flag);
-            else
-                return this.playerFlags.get(player).get(flag);
-        else {
-            if (this.globalFlags.get(flag) == null)
-                if (ProtectedArea.defaultFlags.get(flag) == null)
-                    return false;
-                else
-                    return ProtectedArea.defaultFlags.get(flag);
-            else
-                return this.globalFlags.get(flag);
-        }
+        PlayerFlags flags = this.playerFlags.get(player);
+        if (flags == null)
+            return (this.globalFlags & ProtectedArea.bit(flag)) != 0;
+        else
+            return (flags.effective & ProtectedArea.bit(flag)) != 0;
     }
     
     /**
@@ -133,8 +139,22 @@ public class ProtectedArea {
      * @param value
      *            value to set
      */
-    public void setGlobalFlag(final AreaFlag flag, final boolean value) {
-        this.globalFlags.put(flag, value);
+    public synchronized void setGlobalFlag(final AreaFlag flag, final boolean value) {
+        this.globalSet |= ProtectedArea.bit(flag);
+        if (value)
+            this.globalValues |= ProtectedArea.bit(flag);
+        else
+            this.globalValues &= ~ProtectedArea.bit(flag);
+        this.globalFlags = ProtectedArea.apply(ProtectedArea.DEFAULT_FLAGS,
+                this.globalSet, this.globalValues);
+        
+        // Global flags changed, recompile all players.
+        Map<UUID, PlayerFlags> compiled = new HashMap<UUID, PlayerFlags>(
+                this.playerFlags.size());
+        for (Map.Entry<UUID, PlayerFlags> entry : this.playerFlags.entrySet())
+            compiled.put(entry.getKey(), new PlayerFlags(entry.getValue().set,
+                    entry.getValue().values, this.globalFlags));
+        this.playerFlags = compiled;
     }
     
     /**
@@ -144,13 +164,21 @@ public class ProtectedArea {
      * @param value
      * @param player
      */
-    public void setPlayerFlag(final AreaFlag flag, final boolean value, final UUID player) {
-        if (this.playerFlags.containsKey(player))
-            this.playerFlags.get(player).put(flag, value);
-        else {
-            this.playerFlags.put(player, new HashMap<AreaFlag, Boolean>());
-            this.playerFlags.get(player).put(flag, value);
-        }
+    public synchronized void setPlayerFlag(final AreaFlag flag, final boolean value,
+            final UUID player) {
+        PlayerFlags old = this.playerFlags.get(player);
+        int set = old == null ? 0 : old.set;
+        int values = old == null ? 0 : old.values;
+        
+        set |= ProtectedArea.bit(flag);
+        if (value)
+            values |= ProtectedArea.bit(flag);
+        else
+            values &= ~ProtectedArea.bit(flag);
+        
+        Map<UUID, PlayerFlags> compiled = new HashMap<UUID, PlayerFlags>(this.playerFlags);
+        compiled.put(player, new PlayerFlags(set, values, this.globalFlags));
+        this.playerFlags = compiled;
     }
     
     /**
@@ -179,4 +207,71 @@ public class ProtectedArea {
     public AreaOwner getOwner() {
         return this.owner;
     }
+    
+    /**
+     * Called by {@link PlayerAreaTracker} when player enters this area.
+     * 
+     * @param player
+     *            player that entered this area
+     */
+    public void onPlayerEnter(final Player player) {
+    }
+    
+    /**
+     * Called by {@link PlayerAreaTracker} when player leaves this area.
+     * 
+     * @param player
+     *            player that left this area
+     */
+    public void onPlayerLeave(final Player player) {
+    }
+    
+    /**
+     * Called by {@link PlayerAreaTracker} when player in this area moves to another block. Also called for move, that
+     * leaves this area, after {@link #onPlayerLeave(Player)}.
+     * 
+     * @param player
+     *            player that moved
+     * @param from
+     *            previous location
+     * @param to
+     *            new location
+     */
+    public void onPlayerMove(final Player player, final Location from, final Location to) {
+    }
+    
+    private static int bit(final AreaFlag flag) {
+        return 1 << flag.ordinal();
+    }
+    
+    /**
+     * Returns parent flags with bits from <code>set</code> replaced by bits from <code>values</code>.
+     */
+    private static int apply(final int parent, final int set, final int values) {
+        return (parent & ~set) | (values & set);
+    }
+    
+    /**
+     * Compiled flags of one player.
+     */
+    private static final class PlayerFlags {
+        /**
+         * Bits of flags set for player.
+         */
+        private final int set;
+        /**
+         * Values of flags set for player.
+         */
+        private final int values;
+        /**
+         * Effective flags of player.
+         */
+        private final int effective;
+        
+        private PlayerFlags(final int set, final int values, final int global) {
+            this.set = set;
+            this.values = values;
+            this.effective = ProtectedArea.apply(global, set, values);
+        }
+    }
 }
@@ -19,30 +19,21 @@
 package eu.matejkormuth.pexel.PexelCore.arenas;
 
 import java.io.File;
-import java.lang.reflect.Field;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.bukkit.ChatColor;
 import org.bukkit.GameMode;
-import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Sound;
 import org.bukkit.entity.Player;
 import org.bukkit.potion.PotionEffect;
 import org.bukkit.potion.PotionEffectType;
-import org.w3c.dom.DOMException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 import eu.matejkormuth.pexel.PexelCore.Pexel;
 import eu.matejkormuth.pexel.PexelCore.areas.ProtectedArea;
@@ -50,12 +41,16 @@ import eu.matejkormuth.pexel.PexelCore.bans.BanUtils;
 import eu.matejkormuth.pexel.PexelCore.bans.Bannable;
 import eu.matejkormuth.pexel.PexelCore.chat.ChatManager;
 import eu.matejkormuth.pexel.PexelCore.core.Log;
+import eu.matejkormuth.pexel.PexelCore.core.Paths;
 import eu.matejkormuth.pexel.PexelCore.core.PlayerHolder;
 import eu.matejkormuth.pexel.PexelCore.core.StorageEngine;
 import eu.matejkormuth.pexel.PexelCore.core.ValidityChecker;
 import eu.matejkormuth.pexel.PexelCore.matchmaking.GameState;
 import eu.matejkormuth.pexel.PexelCore.matchmaking.MatchmakingGame;
 import eu.matejkormuth.pexel.PexelCore.minigame.Minigame;
+import eu.matejkormuth.pexel.PexelCore.rollback.ArenaSnapshot;
+import eu.matejkormuth.pexel.PexelCore.rollback.BlockRollbacker;
+import eu.matejkormuth.pexel.PexelCore.rollback.JournalFile;
 import eu.matejkormuth.pexel.PexelCore.util.ItemUtils;
 
 /**
@@ -93,6 +88,22 @@ public abstract class AbstractArena extends ProtectedArea implements Matchmaking
      * {@link MapData} that is currenlty played on this arena.
      */
     protected MapData            mapData;
+    /**
+     * Values of options, that were saved last time.
+     */
+    private volatile String[]    savedOptions;
+    /**
+     * Journal of block changes in this arena.
+     */
+    private BlockRollbacker      rollbacker;
+    /**
+     * Whether are block changes in this arena recorded automatically.
+     */
+    private boolean              captureChanges    = false;
+    /**
+     * Pristine snapshot of protected region of this arena.
+     */
+    private ArenaSnapshot        snapshot;
     
     public AbstractArena(final Minigame minigame, final String arenaName,
             final MapData mapData) {
@@ -159,6 +170,7 @@ public abstract class AbstractArena extends ProtectedArea implements Matchmaking
         }
         else {
             this.activePlayers.add(player);
+            Pexel.getArenaRouter().register(player, this);
             player.setGameMode(this.defaultGameMode);
         }
     }
@@ -166,6 +178,7 @@ public abstract class AbstractArena extends ProtectedArea implements Matchmaking
     @Override
     public void onPlayerLeft(final Player player, final DisconnectReason reason) {
         this.activePlayers.remove(player);
+        Pexel.getArenaRouter().unregister(player, this);
     }
     
     /**
@@ -292,6 +305,95 @@ public abstract class AbstractArena extends ProtectedArea implements Matchmaking
         return this.minigame;
     }
     
+    /**
+     * Converts specified snapshot of options (see {@link ArenaOptions#snapshot(AbstractArena)}) to strings and returns
+     * them if they differ from last saved ones, or null if nothing changed. Returned values are remembered as saved.
+     * Can be called from any thread.
+     * 
+     * @param snapshot
+     *            snapshot of options
+     * @return string values to save or null
+     */
+    public synchronized String[] takeChangedOptions(final Object[] snapshot) {
+        String[] current = ArenaOptions.toStrings(snapshot);
+        if (Arrays.equals(this.savedOptions, current))
+            return null;
+        this.savedOptions = current;
+        return current;
+    }
+    
+    /**
+     * Forgets last saved snapshot, so options will be saved again. Used when write of snapshot failed.
+     */
+    public void invalidateOptionsSnapshot() {
+        this.savedOptions = null;
+    }
+    
+    /**
+     * Returns rollbacker of this arena, which contains changes of blocks in this arena.
+     * 
+     * @return rollbacker of arena
+     */
+    public BlockRollbacker getRollbacker() {
+        if (this.rollbacker == null)
+            this.rollbacker = new BlockRollbacker(this.getName());
+        return this.rollbacker;
+    }
+    
+    /**
+     * Returns pristine snapshot of protected region of this arena, which is used to restore heavily changed chunks.
+     * 
+     * @return snapshot of arena
+     */
+    public ArenaSnapshot getSnapshot() {
+        if (this.snapshot == null)
+            this.snapshot = new ArenaSnapshot(this.mapData.getProtectedRegion(), new File(
+                    Paths.arenaSnapshot(this.getName())), this.mapData.getChecksum());
+        return this.snapshot;
+    }
+    
+    /**
+     * Sets whether should be all block changes in protected region of this arena (breaks, places, explosions, fire,
+     * liquids, pistons, falling blocks...) recorded to {@link #getRollbacker()} automatically. When capturing is
+     * enabled and arena has no valid snapshot yet, snapshot of its current state is taken, so arena should be in
+     * pristine state. Changes are also streamed to persistent journal and if journal of arena was left unfinished by
+     * crash, arena is rolled back first, so this should be called before arena is registered. If unfinished journal
+     * can't be rolled back, map may be damaged, so arena is {@link GameState#DISABLED} and changes are not recorded
+     * until operator restores the map.
+     * 
+     * @param capture
+     *            true to record changes
+     */
+    public void setCaptureChanges(final boolean capture) {
+        if (capture == this.captureChanges)
+            return;
+        if (capture) {
+            JournalFile journal;
+            try {
+                journal = Pexel.getJournalStore().open(this.getName());
+            } catch (IOException e) {
+                this.state = GameState.DISABLED;
+                Log.addProblem("Arena " + this.getName() + " is disabled: " + e.getMessage()
+                        + " Restore the map, delete the journal and restart server.");
+                return;
+            }
+            this.captureChanges = true;
+            this.getRollbacker().setJournalFile(journal);
+            if (!this.getSnapshot().isValid())
+                this.getSnapshot().capture();
+            this.getRollbacker().setSnapshot(this.getSnapshot());
+            Pexel.getBlockCapture().attach(this);
+        }
+        else {
+            this.captureChanges = false;
+            Pexel.getBlockCapture().detach(this);
+        }
+    }
+    
+    public boolean isCapturingChanges() {
+        return this.captureChanges;
+    }
+    
     /**
      * @deprecated Use {@link MapData} and its saving / loading for saving or loading arena data.
      * @param path
@@ -299,60 +401,9 @@ public abstract class AbstractArena extends ProtectedArea implements Matchmaking
     @Deprecated
     public void save(final String path) {
         try {
-            Document conf = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-            Element root = conf.createElement("aconfig");
-            conf.appendChild(root);
-            
-            Element info = conf.createElement("info");
-            
-            root.appendChild(info);
-            
-            Element options = conf.createElement("options");
-            
-            for (Field f : this.getClass().getDeclaredFields())
-                if (f.isAnnotationPresent(ArenaOption.class)) {
-                    ArenaOption annotation = f.getAnnotation(ArenaOption.class);
-                    Element option = conf.createElement("option");
-                    option.setAttribute("name", f.getName());
-                    option.setAttribute("type", f.getType().getCanonicalName());
-                    option.setAttribute("annotation", annotation.name());
-                    option.setAttribute("persistent",
-                            Boolean.toString(annotation.persistent()));
-                    
-                    if (!f.isAccessible())
-                        f.setAccessible(true);
-                    
-                    if (f.getType().equals(Location.class)) {
-                        f.setAccessible(true);
-                        option.setTextContent(f.get(this).toString());
-                    }
-                    else {
-                        option.setTextContent(f.get(this).toString());
-                    }
-                    
-                    options.appendChild(option);
-                }
-            
-            root.appendChild(options);
-            
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            DOMSource source = new DOMSource(conf);
-            StreamResult result = new StreamResult(new File(path));
-            
-            transformer.transform(source, result);
-            
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
-        } catch (TransformerConfigurationException e) {
-            e.printStackTrace();
-        } catch (TransformerException e) {
-            e.printStackTrace();
-        } catch (DOMException e) {
-            e.printStackTrace();
-        } catch (IllegalArgumentException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
+            ArenaOptions options = ArenaOptions.of(this.getClass());
+            options.write(ArenaOptions.toStrings(options.snapshot(this)), new File(path));
+        } catch (ParserConfigurationException | TransformerException | IOException e) {
             e.printStackTrace();
         }
     }
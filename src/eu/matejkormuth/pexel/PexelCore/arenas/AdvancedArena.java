@@ -29,10 +29,8 @@ import org.bukkit.Location;
 import org.bukkit.Sound;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryClickEvent;
-import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerRespawnEvent;
 import org.bukkit.potion.PotionEffectType;
 
@@ -45,7 +43,9 @@ import eu.matejkormuth.pexel.PexelCore.util.NetworkCCFormatter;
 
 /**
  * Arena that has built-in support for pre-game lobby and stuff... Also implements {@link Listener} and calls
- * {@link org.bukkit.plugin.PluginManager#registerEvents(Listener, org.bukkit.plugin.Plugin)} in constructor.
+ * {@link org.bukkit.plugin.PluginManager#registerEvents(Listener, org.bukkit.plugin.Plugin)} in constructor, so
+ * subclasses can declare their own event handlers. Built-in handlers are called by {@link ArenaEventRouter} only for
+ * players of this arena.
  * 
  * @author Mato Kormuth
  * 
@@ -116,7 +116,7 @@ public abstract class AdvancedArena extends AbstractArena implements Listener {
         
         NetworkCCFormatter.sendConstructor(this);
         
-        // TODO: Registers events in bukkit. Needs to be reworked.
+        // Registers event handlers of subclasses. Built-in ones are routed by ArenaEventRouter.
         Bukkit.getPluginManager().registerEvents(this, Pexel.getCore());
     }
     
@@ -289,7 +289,8 @@ public abstract class AdvancedArena extends AbstractArena implements Listener {
     
     /**
      * Reseta arena basic things. <b>Calls {@link AdvancedArena#onReset()} at the end of this function!</b></br> If you
-     * want to extend reset function, override onReset() function.
+     * want to extend reset function, override onReset() function. If arena captures block changes, they are rolled
+     * back first and onReset() is called after rollback finished.
      */
     public final void reset() {
         this.state = GameState.RESETING;
@@ -308,7 +309,17 @@ public abstract class AdvancedArena extends AbstractArena implements Listener {
         //Not many things happeing here. Leaving method for future.
         this.activePlayers.clear();
         //Invoke callback.
-        this.onReset();
+        if (this.isCapturingChanges()) {
+            this.getRollbacker().rollbackAsync(new Runnable() {
+                @Override
+                public void run() {
+                    AdvancedArena.this.onReset();
+                }
+            });
+        }
+        else {
+            this.onReset();
+        }
     }
     
     /**
@@ -430,12 +441,6 @@ public abstract class AdvancedArena extends AbstractArena implements Listener {
         this.clearPlayerInventory(player);
     }
     
-    @EventHandler
-    protected void onPlayerQuit(final PlayerQuitEvent event) {
-        if (this.contains(event.getPlayer()))
-            this.onPlayerLeft(event.getPlayer(), DisconnectReason.PLAYER_DISCONNECT);
-    }
-    
     /**
      * Updates game state.
      */
@@ -460,23 +465,22 @@ public abstract class AdvancedArena extends AbstractArena implements Listener {
         }
     }
     
-    @EventHandler
+    /**
+     * Called by {@link ArenaEventRouter} when player of this arena respawns.
+     */
     public void ___onPlayerRespawn(final PlayerRespawnEvent event) {
-        if (this.contains(event.getPlayer()))
-            if (!this.respawnAllowed) {
-                //Kick from arena
-                this.onPlayerLeft(event.getPlayer(), DisconnectReason.LEAVE_BY_GAME);
-            }
+        if (!this.respawnAllowed) {
+            //Kick from arena
+            this.onPlayerLeft(event.getPlayer(), DisconnectReason.LEAVE_BY_GAME);
+        }
     }
     
-    @EventHandler
+    /**
+     * Called by {@link ArenaEventRouter} when player of this arena clicks in inventory.
+     */
     public void onPlayerInventoryClick(final InventoryClickEvent event) {
-        if (event.getWhoClicked() instanceof Player) {
-            if (this.activePlayers.contains(event.getWhoClicked())) {
-                if (this.inventoryDisabled) {
-                    event.setCancelled(true);
-                }
-            }
+        if (this.inventoryDisabled) {
+            event.setCancelled(true);
         }
     }
     
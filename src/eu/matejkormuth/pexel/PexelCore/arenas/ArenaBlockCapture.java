@@ -0,0 +1,227 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.arenas;
+
+import java.util.List;
+
+import org.bukkit.Bukkit;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockIgniteEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.BlockSpreadEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.player.PlayerBucketFillEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+
+import eu.matejkormuth.pexel.PexelCore.Pexel;
+import eu.matejkormuth.pexel.PexelCore.core.RegionIndex;
+import eu.matejkormuth.pexel.PexelCore.rollback.BlockRollbacker;
+
+/**
+ * Records original state of blocks changed inside arenas, that capture changes (see
+ * {@link AbstractArena#setCaptureChanges(boolean)}), to their {@link BlockRollbacker}s. Events run at monitor priority,
+ * so only changes, that really happen are recorded.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class ArenaBlockCapture implements Listener {
+    /**
+     * Protected regions of capturing arenas.
+     */
+    private final RegionIndex<AbstractArena> arenas    = new RegionIndex<AbstractArena>();
+    /**
+     * Count of capturing arenas, events are ignored when there is none.
+     */
+    private volatile int                     capturing = 0;
+    
+    public ArenaBlockCapture() {
+        Bukkit.getPluginManager().registerEvents(this, Pexel.getCore());
+    }
+    
+    /**
+     * Starts capturing changes in region of specified arena.
+     */
+    void attach(final AbstractArena arena) {
+        this.arenas.put(arena.getName(), arena.getRegion(), arena);
+        this.capturing = this.arenas.size();
+    }
+    
+    /**
+     * Stops capturing changes in region of specified arena.
+     */
+    void detach(final AbstractArena arena) {
+        this.arenas.remove(arena.getName());
+        this.capturing = this.arenas.size();
+    }
+    
+    /**
+     * Returns rollbacker of capturing arena, that contains specified block, or null.
+     */
+    private BlockRollbacker rollbackerAt(final Block block) {
+        if (this.capturing == 0)
+            return null;
+        AbstractArena arena = this.arenas.find(block.getWorld(), block.getX() + 0.5,
+                block.getY() + 0.5, block.getZ() + 0.5);
+        if (arena == null)
+            return null;
+        return arena.getRollbacker();
+    }
+    
+    private void capture(final Block block) {
+        BlockRollbacker rollbacker = this.rollbackerAt(block);
+        if (rollbacker != null)
+            rollbacker.addChange(block);
+    }
+    
+    @SuppressWarnings("deprecation")
+    private void capture(final BlockState state) {
+        BlockRollbacker rollbacker = this.rollbackerAt(state.getBlock());
+        if (rollbacker != null)
+            rollbacker.addChange(state.getWorld(), state.getX(), state.getY(),
+                    state.getZ(), state.getTypeId(), state.getRawData());
+    }
+    
+    private void capture(final List<Block> blocks) {
+        if (this.capturing == 0 || blocks.isEmpty())
+            return;
+        
+        // One lookup for whole bulk, others only for blocks outside of found arena.
+        Block first = blocks.get(0);
+        AbstractArena arena = this.arenas.find(first.getWorld(), first.getX() + 0.5,
+                first.getY() + 0.5, first.getZ() + 0.5);
+        for (Block block : blocks)
+            if (arena != null
+                    && arena.getRegion().contains(block.getWorld(), block.getX() + 0.5,
+                            block.getY() + 0.5, block.getZ() + 0.5)) {
+                arena.getRollbacker().addChange(block);
+            }
+            else {
+                this.capture(block);
+            }
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockBreak(final BlockBreakEvent event) {
+        this.capture(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockPlace(final BlockPlaceEvent event) {
+        // Block is already placed, use its replaced state.
+        this.capture(event.getBlockReplacedState());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockBurn(final BlockBurnEvent event) {
+        this.capture(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockIgnite(final BlockIgniteEvent event) {
+        this.capture(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockFade(final BlockFadeEvent event) {
+        this.capture(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockForm(final BlockFormEvent event) {
+        this.capture(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockSpread(final BlockSpreadEvent event) {
+        this.capture(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onLeavesDecay(final LeavesDecayEvent event) {
+        this.capture(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockFromTo(final BlockFromToEvent event) {
+        // Flowing liquid or dragon egg.
+        this.capture(event.getToBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onPistonExtend(final BlockPistonExtendEvent event) {
+        BlockFace direction = event.getDirection();
+        this.capture(event.getBlock().getRelative(direction));
+        for (Block block : event.getBlocks()) {
+            this.capture(block);
+            this.capture(block.getRelative(direction));
+        }
+    }
+    
+    @SuppressWarnings("deprecation")
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onPistonRetract(final BlockPistonRetractEvent event) {
+        this.capture(event.getBlock().getRelative(event.getDirection()));
+        if (event.isSticky())
+            this.capture(event.getRetractLocation().getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onEntityChangeBlock(final EntityChangeBlockEvent event) {
+        // Falling blocks, endermen, silverfish, withers...
+        this.capture(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onEntityExplode(final EntityExplodeEvent event) {
+        this.capture(event.blockList());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBucketEmpty(final PlayerBucketEmptyEvent event) {
+        this.capture(event.getBlockClicked().getRelative(event.getBlockFace()));
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBucketFill(final PlayerBucketFillEvent event) {
+        this.capture(event.getBlockClicked().getRelative(event.getBlockFace()));
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onStructureGrow(final StructureGrowEvent event) {
+        // States are new states, record blocks at their positions.
+        for (BlockState state : event.getBlocks())
+            this.capture(state.getBlock());
+    }
+}
@@ -0,0 +1,101 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.arenas;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+
+import eu.matejkormuth.pexel.PexelCore.Pexel;
+
+/**
+ * Single listener, that forwards player events only to the arena, that player is playing in. Arenas register and
+ * unregister their players in {@link AbstractArena#onPlayerJoin(Player)} and
+ * {@link AbstractArena#onPlayerLeft(Player, DisconnectReason)}.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class ArenaEventRouter implements Listener {
+    /**
+     * Arena of each playing player.
+     */
+    private final Map<UUID, AbstractArena> arenas = new HashMap<UUID, AbstractArena>();
+    
+    public ArenaEventRouter() {
+        Bukkit.getPluginManager().registerEvents(this, Pexel.getCore());
+    }
+    
+    /**
+     * Returns arena, that specified player is playing in, or null.
+     * 
+     * @param player
+     *            player
+     * @return arena of player
+     */
+    public AbstractArena getArena(final Player player) {
+        return this.arenas.get(player.getUniqueId());
+    }
+    
+    /**
+     * Sets arena of specified player.
+     */
+    void register(final Player player, final AbstractArena arena) {
+        this.arenas.put(player.getUniqueId(), arena);
+    }
+    
+    /**
+     * Removes specified player, if he is playing in specified arena.
+     */
+    void unregister(final Player player, final AbstractArena arena) {
+        if (this.arenas.get(player.getUniqueId()) == arena)
+            this.arenas.remove(player.getUniqueId());
+    }
+    
+    @EventHandler
+    private void onPlayerQuit(final PlayerQuitEvent event) {
+        AbstractArena arena = this.getArena(event.getPlayer());
+        if (arena != null)
+            arena.onPlayerLeft(event.getPlayer(), DisconnectReason.PLAYER_DISCONNECT);
+    }
+    
+    @EventHandler
+    private void onPlayerRespawn(final PlayerRespawnEvent event) {
+        AbstractArena arena = this.getArena(event.getPlayer());
+        if (arena instanceof AdvancedArena)
+            ((AdvancedArena) arena).___onPlayerRespawn(event);
+    }
+    
+    @EventHandler
+    private void onInventoryClick(final InventoryClickEvent event) {
+        if (event.getWhoClicked() instanceof Player) {
+            AbstractArena arena = this.getArena((Player) event.getWhoClicked());
+            if (arena instanceof AdvancedArena)
+                ((AdvancedArena) arena).onPlayerInventoryClick(event);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.arenas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.bukkit.Location;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import eu.matejkormuth.pexel.PexelCore.util.AtomicFiles;
+
+/**
+ * Precompiled {@link ArenaOption} fields of one arena class. Fields are found by reflection only once per class and
+ * accessed by {@link MethodHandle}s.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+@SuppressWarnings("deprecation")
+public final class ArenaOptions {
+    private static final ConcurrentMap<Class<?>, ArenaOptions> cache = new ConcurrentHashMap<Class<?>, ArenaOptions>();
+    
+    private final List<Option>                                 options;
+    
+    private ArenaOptions(final Class<?> type) {
+        List<Option> list = new ArrayList<Option>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        // Only fields declared by the class itself, as options were always saved.
+        for (Field f : type.getDeclaredFields())
+            if (f.isAnnotationPresent(ArenaOption.class)) {
+                f.setAccessible(true);
+                try {
+                    list.add(new Option(list.size(), f, f.getAnnotation(ArenaOption.class),
+                            lookup.unreflectGetter(f), lookup.unreflectSetter(f)));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Can't access arena option "
+                            + f.getName() + " of " + type.getName(), e);
+                }
+            }
+        this.options = Collections.unmodifiableList(list);
+    }
+    
+    /**
+     * Returns options of specified arena class. Metadata is created on first call and cached.
+     * 
+     * @param type
+     *            arena class
+     * @return options of class
+     */
+    public static ArenaOptions of(final Class<? extends AbstractArena> type) {
+        ArenaOptions options = ArenaOptions.cache.get(type);
+        if (options == null) {
+            options = new ArenaOptions(type);
+            ArenaOptions existing = ArenaOptions.cache.putIfAbsent(type, options);
+            if (existing != null)
+                options = existing;
+        }
+        return options;
+    }
+    
+    /**
+     * Returns all options of this class.
+     * 
+     * @return unmodifiable list of options
+     */
+    public List<Option> getOptions() {
+        return this.options;
+    }
+    
+    /**
+     * Returns option with specified field or annotation name or null, if there is no such option.
+     * 
+     * @param name
+     *            name of option
+     * @return option or null
+     */
+    public Option find(final String name) {
+        for (Option option : this.options)
+            if (option.getName().equals(name) || option.getAnnotationName().equals(name))
+                return option;
+        return null;
+    }
+    
+    /**
+     * Returns values of all options of specified arena. Immutable values are copied by reference and locations are
+     * cloned, so they can be converted to strings by {@link #toStrings(Object[])} on other thread. Other values are
+     * converted to strings here. Should be called from main thread.
+     * 
+     * @param arena
+     *            arena
+     * @return values of options
+     */
+    public Object[] snapshot(final AbstractArena arena) {
+        Object[] values = new Object[this.options.size()];
+        for (int i = 0; i < values.length; i++) {
+            Object value = this.options.get(i).get(arena);
+            if (value instanceof Location)
+                values[i] = ((Location) value).clone();
+            else if (value == null || value instanceof String || value instanceof Number
+                    || value instanceof Boolean || value instanceof Character
+                    || value instanceof Enum || value instanceof UUID)
+                values[i] = value;
+            else
+                values[i] = value.toString();
+        }
+        return values;
+    }
+    
+    /**
+     * Converts snapshot created by {@link #snapshot(AbstractArena)} to strings. Can be called from any thread.
+     * 
+     * @param values
+     *            snapshot of options
+     * @return string values of options, null for null values
+     */
+    public static String[] toStrings(final Object[] values) {
+        String[] strings = new String[values.length];
+        for (int i = 0; i < values.length; i++)
+            strings[i] = values[i] == null ? null : values[i].toString();
+        return strings;
+    }
+    
+    /**
+     * Atomically writes snapshot of options to specified file. Can be called from any thread.
+     * 
+     * @param values
+     *            string values created by {@link #toStrings(Object[])}
+     * @param file
+     *            file to write
+     * @throws ParserConfigurationException
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void write(final String[] values, final File file)
+            throws ParserConfigurationException, TransformerException, IOException {
+        Document conf = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = conf.createElement("aconfig");
+        conf.appendChild(root);
+        root.appendChild(conf.createElement("info"));
+        
+        Element options = conf.createElement("options");
+        for (Option o : this.options) {
+            Element option = conf.createElement("option");
+            option.setAttribute("name", o.getName());
+            option.setAttribute("type", o.getType().getCanonicalName());
+            option.setAttribute("annotation", o.getAnnotationName());
+            option.setAttribute("persistent", Boolean.toString(o.isPersistent()));
+            option.setTextContent(String.valueOf(values[o.getIndex()]));
+            options.appendChild(option);
+        }
+        root.appendChild(options);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(conf),
+                new StreamResult(out));
+        AtomicFiles.write(file, out.toByteArray());
+    }
+    
+    /**
+     * One {@link ArenaOption} field.
+     */
+    public static final class Option {
+        private final int          index;
+        private final String       name;
+        private final String       annotationName;
+        private final Class<?>     type;
+        private final boolean      persistent;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        
+        private Option(final int index, final Field field, final ArenaOption annotation,
+                final MethodHandle getter, final MethodHandle setter) {
+            this.index = index;
+            this.name = field.getName();
+            this.annotationName = annotation.name();
+            this.type = field.getType();
+            this.persistent = annotation.persistent();
+            this.getter = getter;
+            this.setter = setter;
+        }
+        
+        /**
+         * Returns value of this option in specified arena.
+         * 
+         * @param arena
+         *            arena
+         * @return value of option
+         */
+        public Object get(final AbstractArena arena) {
+            try {
+                return this.getter.invoke(arena);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Can't get arena option " + this.name, e);
+            }
+        }
+        
+        /**
+         * Sets value of this option in specified arena.
+         * 
+         * @param arena
+         *            arena
+         * @param value
+         *            new value
+         */
+        public void set(final AbstractArena arena, final Object value) {
+            try {
+                this.setter.invoke(arena, value);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Can't set arena option " + this.name, e);
+            }
+        }
+        
+        public int getIndex() {
+            return this.index;
+        }
+        
+        public String getName() {
+            return this.name;
+        }
+        
+        public String getAnnotationName() {
+            return this.annotationName;
+        }
+        
+        public Class<?> getType() {
+            return this.type;
+        }
+        
+        public boolean isPersistent() {
+            return this.persistent;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.arenas;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.matejkormuth.pexel.PexelCore.Pexel;
+import eu.matejkormuth.pexel.PexelCore.core.Log;
+import eu.matejkormuth.pexel.PexelCore.core.ValidityChecker;
+import eu.matejkormuth.pexel.PexelCore.core.ValidityChecker.ValidationException;
+
+/**
+ * Catalog of arena maps. Map files are unmarshalled in parallel, validated and registered as arenas on main thread,
+ * when factory of their minigame is known.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class MapCatalog {
+    private final Map<String, List<MapData>> maps      = new HashMap<String, List<MapData>>();
+    private final Map<String, ArenaFactory>  factories = new HashMap<String, ArenaFactory>();
+    
+    /**
+     * Loads all maps from XML files in specified directory. Files are parsed by one thread per core, validation and
+     * arena registration is done on calling (main) thread.
+     * 
+     * @param directory
+     *            directory with map files
+     */
+    public void load(final File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(".xml");
+            }
+        });
+        if (files == null || files.length == 0)
+            return;
+        
+        long start = System.currentTimeMillis();
+        int threads = Math.min(files.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService loaders = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    private final AtomicInteger number = new AtomicInteger();
+            
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r);
+                        thread.setName("MapLoader-" + this.number.incrementAndGet());
+                        return thread;
+                    }
+                });
+        
+        List<Future<MapData>> results = new ArrayList<Future<MapData>>(files.length);
+        for (final File file : files)
+            results.add(loaders.submit(new Callable<MapData>() {
+                @Override
+                public MapData call() throws Exception {
+                    return MapData.load(file);
+                }
+            }));
+        
+        int loaded = 0;
+        try {
+            for (int i = 0; i < files.length; i++) {
+                try {
+                    if (this.add(results.get(i).get()))
+                        loaded++;
+                } catch (ExecutionException e) {
+                    Log.addProblem("Can't load map " + files[i].getName() + ": "
+                            + e.getCause().toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.severe("Interrupted while loading maps!");
+            Thread.currentThread().interrupt();
+        } finally {
+            loaders.shutdownNow();
+        }
+        
+        Log.info("Loaded " + loaded + " of " + files.length + " maps in "
+                + (System.currentTimeMillis() - start) + " ms using " + threads
+                + " threads.");
+    }
+    
+    private boolean add(final MapData mapData) {
+        try {
+            ValidityChecker.checkMapData(mapData);
+        } catch (ValidationException e) {
+            Log.addProblem("Map " + mapData.getName() + " is not valid: "
+                    + e.getMessage());
+            return false;
+        }
+        
+        List<MapData> list = this.maps.get(mapData.getMinigameName());
+        if (list == null) {
+            list = new ArrayList<MapData>();
+            this.maps.put(mapData.getMinigameName(), list);
+        }
+        list.add(mapData);
+        
+        ArenaFactory factory = this.factories.get(mapData.getMinigameName());
+        if (factory != null)
+            this.createArena(factory, mapData);
+        return true;
+    }
+    
+    private void createArena(final ArenaFactory factory, final MapData mapData) {
+        try {
+            Pexel.getMatchmaking().registerArena(factory.createArena(mapData));
+        } catch (RuntimeException e) {
+            Log.addProblem("Can't create arena on map " + mapData.getName() + ": "
+                    + e.toString());
+        }
+    }
+    
+    /**
+     * Registers arena factory of specified minigame and creates arenas for all already loaded maps of the minigame.
+     * Minigame must be registered before its factory. Should be called from main thread.
+     * 
+     * @param minigameName
+     *            code safe name of minigame
+     * @param factory
+     *            factory of minigame's arenas
+     */
+    public void registerFactory(final String minigameName, final ArenaFactory factory) {
+        this.factories.put(minigameName, factory);
+        for (MapData mapData : this.getMaps(minigameName))
+            this.createArena(factory, mapData);
+    }
+    
+    /**
+     * Returns unmodifiable list of loaded maps of specified minigame.
+     * 
+     * @param minigameName
+     *            code safe name of minigame
+     * @return maps of minigame
+     */
+    public List<MapData> getMaps(final String minigameName) {
+        List<MapData> list = this.maps.get(minigameName);
+        if (list == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(list);
+    }
+}
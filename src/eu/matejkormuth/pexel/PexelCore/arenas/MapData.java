@@ -18,9 +18,13 @@
 // @formatter:on
 package eu.matejkormuth.pexel.PexelCore.arenas;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -83,14 +87,22 @@ public class MapData {
     
     @XmlAttribute(name = "maxPlayers")
     protected int                                     maxPlayers           = 16;                                         // Default value of 16.
-                                                                                                                          
+    
     @XmlAttribute(name = "protectedRegion")
     protected Region                                  protectedRegion;
     
+    /**
+     * Shared JAXB context. Creating it is expensive, but it is thread-safe, so it is created only once.
+     */
+    private static volatile JAXBContext               context;
+    
     @XmlElement(name = "anchor")
     // Used only if locationsType is RELATIVE.
     protected SerializableLocation                    anchor               = null;
     
+    // CRC32 of file, that this map was loaded from.
+    private transient long                            checksum             = 0;
+    
     /**
      * Creates a new MapData with specified author and name.
      * 
@@ -122,15 +134,43 @@ public class MapData {
         
     }
     
-    public static final MapData load(final File file) throws JAXBException {
-        JAXBContext jc = JAXBContext.newInstance(MapData.class);
-        Unmarshaller un = jc.createUnmarshaller();
-        return (MapData) un.unmarshal(file);
+    private static JAXBContext getContext() throws JAXBException {
+        JAXBContext jc = MapData.context;
+        if (jc == null) {
+            synchronized (MapData.class) {
+                jc = MapData.context;
+                if (jc == null) {
+                    jc = JAXBContext.newInstance(MapData.class);
+                    MapData.context = jc;
+                }
+            }
+        }
+        return jc;
+    }
+    
+    /**
+     * Loads map data from specified file. Can be called from any thread.
+     * 
+     * @param file
+     *            XML file
+     * @return loaded map data
+     * @throws JAXBException
+     * @throws IOException
+     *             if file can't be read
+     */
+    public static final MapData load(final File file) throws JAXBException, IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // Unmarshallers are not thread-safe, each call creates own one.
+        Unmarshaller un = MapData.getContext().createUnmarshaller();
+        MapData mapData = (MapData) un.unmarshal(new ByteArrayInputStream(bytes));
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        mapData.checksum = crc.getValue();
+        return mapData;
     }
     
     public void save(final File file) throws JAXBException {
-        JAXBContext jc = JAXBContext.newInstance(MapData.class);
-        Marshaller m = jc.createMarshaller();
+        Marshaller m = MapData.getContext().createMarshaller();
         m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
         m.marshal(this, file);
     }
@@ -220,4 +260,14 @@ public class MapData {
     public int getMaxPlayers() {
         return this.maxPlayers;
     }
+    
+    /**
+     * Returns CRC32 of file, that this map was loaded from. Every edit of map file changes it, so it identifies
+     * version of map.
+     * 
+     * @return checksum of map file or 0 if map was not loaded from file
+     */
+    public long getChecksum() {
+        return this.checksum;
+    }
 }
@@ -0,0 +1,170 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import eu.matejkormuth.pexel.PexelCore.areas.Lobby;
+import eu.matejkormuth.pexel.PexelCore.areas.ProtectedArea;
+import eu.matejkormuth.pexel.PexelCore.arenas.AbstractArena;
+
+/**
+ * Immutable snapshot of all registered areas, arenas, lobbies and gates. New snapshot is created by each change, so
+ * snapshot can be safely read from any thread without locking.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public final class AreaRegistry {
+    /**
+     * Empty registry.
+     */
+    static final AreaRegistry                 EMPTY = new AreaRegistry(0,
+                                                            Collections.<String, ProtectedArea> emptyMap(),
+                                                            Collections.<String, AbstractArena> emptyMap(),
+                                                            Collections.<String, Lobby> emptyMap(),
+                                                            Collections.<String, TeleportGate> emptyMap());
+    
+    private final long                        version;
+    private final Map<String, ProtectedArea>  areas;
+    private final Map<String, AbstractArena>  arenas;
+    private final Map<String, Lobby>          lobbies;
+    private final Map<String, TeleportGate>   gates;
+    
+    private AreaRegistry(final long version, final Map<String, ProtectedArea> areas,
+            final Map<String, AbstractArena> arenas, final Map<String, Lobby> lobbies,
+            final Map<String, TeleportGate> gates) {
+        this.version = version;
+        this.areas = areas;
+        this.arenas = arenas;
+        this.lobbies = lobbies;
+        this.gates = gates;
+    }
+    
+    /**
+     * Returns new snapshot with specified arena added.
+     * 
+     * @param arena
+     *            arena to add
+     * @return new snapshot
+     */
+    AreaRegistry withArena(final AbstractArena arena) {
+        return new AreaRegistry(this.version + 1, with(this.areas, arena.getName(),
+                (ProtectedArea) arena), with(this.arenas, arena.getName(), arena),
+                this.lobbies, this.gates);
+    }
+    
+    /**
+     * Returns new snapshot with specified lobby added.
+     * 
+     * @param lobby
+     *            lobby to add
+     * @return new snapshot
+     */
+    AreaRegistry withLobby(final Lobby lobby) {
+        return new AreaRegistry(this.version + 1, with(this.areas, lobby.getName(),
+                (ProtectedArea) lobby), this.arenas, with(this.lobbies, lobby.getName(),
+                lobby), this.gates);
+    }
+    
+    /**
+     * Returns new snapshot with specified gate added.
+     * 
+     * @param name
+     *            name of gate
+     * @param gate
+     *            gate to add
+     * @return new snapshot
+     */
+    AreaRegistry withGate(final String name, final TeleportGate gate) {
+        return new AreaRegistry(this.version + 1, this.areas, this.arenas, this.lobbies,
+                with(this.gates, name, gate));
+    }
+    
+    /**
+     * Returns new snapshot without specified gate.
+     * 
+     * @param name
+     *            name of gate
+     * @return new snapshot
+     */
+    AreaRegistry withoutGate(final String name) {
+        if (!this.gates.containsKey(name))
+            return this;
+        
+        Map<String, TeleportGate> copy = new HashMap<String, TeleportGate>(this.gates);
+        copy.remove(name);
+        return new AreaRegistry(this.version + 1, this.areas, this.arenas, this.lobbies,
+                Collections.unmodifiableMap(copy));
+    }
+    
+    private static <V> Map<String, V> with(final Map<String, V> map, final String key,
+            final V value) {
+        Map<String, V> copy = new HashMap<String, V>(map);
+        copy.put(key, value);
+        return Collections.unmodifiableMap(copy);
+    }
+    
+    /**
+     * Returns version of this snapshot. Each change increments version by one.
+     * 
+     * @return version
+     */
+    public long getVersion() {
+        return this.version;
+    }
+    
+    /**
+     * Returns unmodifiable map of all areas (arenas and lobbies).
+     * 
+     * @return areas
+     */
+    public Map<String, ProtectedArea> getAreas() {
+        return this.areas;
+    }
+    
+    /**
+     * Returns unmodifiable map of arenas.
+     * 
+     * @return arenas
+     */
+    public Map<String, AbstractArena> getArenas() {
+        return this.arenas;
+    }
+    
+    /**
+     * Returns unmodifiable map of lobbies.
+     * 
+     * @return lobbies
+     */
+    public Map<String, Lobby> getLobbies() {
+        return this.lobbies;
+    }
+    
+    /**
+     * Returns unmodifiable map of gates.
+     * 
+     * @return gates
+     */
+    public Map<String, TeleportGate> getGates() {
+        return this.gates;
+    }
+}
@@ -0,0 +1,38 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import org.bukkit.block.Block;
+
+/**
+ * Visitor of blocks in {@link Region}. Used by {@link Region#forEachBlock(BlockVisitor)}.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public interface BlockVisitor {
+    /**
+     * Called for each visited block.
+     * 
+     * @param block
+     *            visited block
+     * @return <b>true</b> to continue, <b>false</b> to stop visiting
+     */
+    public boolean visit(Block block);
+}
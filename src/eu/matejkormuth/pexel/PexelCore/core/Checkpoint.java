@@ -0,0 +1,223 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import eu.matejkormuth.pexel.PexelCore.util.AtomicFiles;
+
+/**
+ * Coordinates saving of all subsystems when plugin is disabling. State of each subsystem is copied on main thread and
+ * then all subsystems are written in parallel in specified time budget. Result of each subsystem is logged and stored
+ * in report file, that is checked on next start.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class Checkpoint {
+    /**
+     * Subsystem, that takes part in checkpoint.
+     */
+    public interface Participant {
+        /**
+         * Copies state of subsystem. Called from main thread.
+         * 
+         * @return writer, that persists copied state on other thread
+         * @throws Exception
+         *             when the state can't be copied
+         */
+        public Writer snapshot() throws Exception;
+    }
+    
+    /**
+     * Writes copied state of subsystem. Called from checkpoint thread.
+     */
+    public interface Writer {
+        public void write() throws Exception;
+    }
+    
+    /**
+     * Result of subsystem.
+     */
+    public enum Result {
+        /**
+         * All data of subsystem were written.
+         */
+        DONE,
+        /**
+         * Subsystem failed with exception.
+         */
+        FAILED,
+        /**
+         * Subsystem was not finished in time budget.
+         */
+        TIMED_OUT;
+    }
+    
+    private final Map<String, Participant> participants = new LinkedHashMap<String, Participant>();
+    private final File                     reportFile;
+    
+    /**
+     * Creates new checkpoint, that stores its report in specified file.
+     * 
+     * @param reportFile
+     *            report file
+     */
+    public Checkpoint(final File reportFile) {
+        this.reportFile = reportFile;
+    }
+    
+    /**
+     * Registers subsystem with specified name.
+     * 
+     * @param name
+     *            name of subsystem
+     * @param participant
+     *            subsystem
+     */
+    public void register(final String name, final Participant participant) {
+        this.participants.put(name, participant);
+    }
+    
+    /**
+     * Logs subsystems, that were not saved by last checkpoint. Should be called when plugin is enabling.
+     */
+    public void checkLastReport() {
+        if (!this.reportFile.exists())
+            return;
+        
+        YamlConfiguration report = new YamlConfiguration();
+        try {
+            report.load(this.reportFile);
+        } catch (IOException | InvalidConfigurationException e) {
+            Log.addProblem("Can't read last checkpoint report: " + e.toString());
+            return;
+        }
+        for (String name : report.getKeys(false))
+            if (!Result.DONE.name().equals(report.getString(name)))
+                Log.addProblem("Subsystem " + name + " was not saved on last shutdown ("
+                        + report.getString(name) + ")!");
+    }
+    
+    /**
+     * Copies state of all subsystems and writes them in parallel. Blocks until all subsystems are written or time
+     * budget is exhausted. Should be called from main thread.
+     * 
+     * @param budget
+     *            time budget in milliseconds
+     * @return result of each subsystem
+     */
+    public Map<String, Result> run(final long budget) {
+        long start = System.currentTimeMillis();
+        long deadline = start + budget;
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        
+        // Snapshots on main thread, one after another.
+        Map<String, Writer> writers = new LinkedHashMap<String, Writer>();
+        for (Map.Entry<String, Participant> entry : this.participants.entrySet()) {
+            try {
+                writers.put(entry.getKey(), entry.getValue().snapshot());
+            } catch (Exception e) {
+                Log.severe("Checkpoint of " + entry.getKey() + " failed: " + e.toString());
+                e.printStackTrace();
+                results.put(entry.getKey(), Result.FAILED);
+            }
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, writers.size()), new ThreadFactory() {
+                    private final AtomicInteger number = new AtomicInteger();
+            
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r);
+                        thread.setName("Checkpoint-" + this.number.incrementAndGet());
+                        // Writes, that exceed budget must not block shutdown. They are atomic, so killing them is safe.
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        List<Future<?>> futures = new ArrayList<Future<?>>(writers.size());
+        for (final Writer writer : writers.values())
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    writer.write();
+                    return null;
+                }
+            }));
+        executor.shutdown();
+        
+        int i = 0;
+        for (String name : writers.keySet()) {
+            Future<?> future = futures.get(i++);
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+                results.put(name, Result.DONE);
+            } catch (ExecutionException e) {
+                Log.severe("Checkpoint of " + name + " failed: "
+                        + e.getCause().toString());
+                e.getCause().printStackTrace();
+                results.put(name, Result.FAILED);
+            } catch (TimeoutException e) {
+                Log.severe("Checkpoint of " + name + " was not finished in " + budget
+                        + " ms!");
+                results.put(name, Result.TIMED_OUT);
+            } catch (InterruptedException e) {
+                Log.severe("Interrupted while waiting for checkpoint of " + name + "!");
+                results.put(name, Result.TIMED_OUT);
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        this.writeReport(results);
+        Log.info("Checkpoint finished in " + (System.currentTimeMillis() - start)
+                + " ms: " + results.toString());
+        return results;
+    }
+    
+    private void writeReport(final Map<String, Result> results) {
+        YamlConfiguration report = new YamlConfiguration();
+        for (Map.Entry<String, Result> entry : results.entrySet())
+            report.set(entry.getKey(), entry.getValue().name());
+        try {
+            AtomicFiles.write(this.reportFile, report.saveToString());
+        } catch (IOException e) {
+            Log.severe("Can't write checkpoint report: " + e.toString());
+        }
+    }
+}
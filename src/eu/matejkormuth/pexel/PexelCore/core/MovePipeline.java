@@ -0,0 +1,124 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import java.util.Arrays;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerMoveEvent;
+
+import eu.matejkormuth.pexel.PexelCore.Pexel;
+
+/**
+ * Single listener of {@link PlayerMoveEvent}. Each move is classified by {@link MoveType} and passed only to handlers,
+ * that are registered for that type of move, in order in which they were registered. Most of moves are only rotations,
+ * so they are rejected without calling any handler, if no handler needs them.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class MovePipeline implements Listener {
+    /**
+     * Registered stages. Array is replaced (never modified) when stage is added or removed.
+     */
+    private volatile Stage[] stages  = new Stage[0];
+    /**
+     * The least significant type of move, that some stage handles.
+     */
+    private volatile int     minimum = Integer.MAX_VALUE;
+    
+    public MovePipeline() {
+        Bukkit.getPluginManager().registerEvents(this, Pexel.getCore());
+    }
+    
+    /**
+     * Registers handler, that will receive moves, that are at least as significant as specified type. Handlers are
+     * called in order in which they were registered.
+     * 
+     * @param type
+     *            least significant type of move, that handler needs
+     * @param handler
+     *            handler
+     */
+    public synchronized void register(final MoveType type, final MoveHandler handler) {
+        Stage[] newStages = Arrays.copyOf(this.stages, this.stages.length + 1);
+        newStages[this.stages.length] = new Stage(type, handler);
+        this.publish(newStages);
+    }
+    
+    /**
+     * Unregisters specified handler.
+     * 
+     * @param handler
+     *            handler to unregister
+     */
+    public synchronized void unregister(final MoveHandler handler) {
+        Stage[] newStages = new Stage[this.stages.length];
+        int count = 0;
+        for (Stage stage : this.stages)
+            if (stage.handler != handler)
+                newStages[count++] = stage;
+        this.publish(Arrays.copyOf(newStages, count));
+    }
+    
+    private void publish(final Stage[] newStages) {
+        int newMinimum = Integer.MAX_VALUE;
+        for (Stage stage : newStages)
+            newMinimum = Math.min(newMinimum, stage.type.ordinal());
+        this.stages = newStages;
+        this.minimum = newMinimum;
+    }
+    
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    private void onPlayerMove(final PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        MoveType type = MoveType.of(from, to);
+        if (type.ordinal() < this.minimum)
+            return;
+        
+        for (Stage stage : this.stages) {
+            if (!type.includes(stage.type))
+                continue;
+            
+            stage.handler.onPlayerMove(event, type);
+            if (event.isCancelled())
+                return;
+            // Destination was changed by handler, next stages get the new move.
+            if (event.getTo() != to) {
+                to = event.getTo();
+                type = MoveType.of(from, to);
+            }
+        }
+    }
+    
+    private static final class Stage {
+        private final MoveType    type;
+        private final MoveHandler handler;
+        
+        private Stage(final MoveType type, final MoveHandler handler) {
+            this.type = type;
+            this.handler = handler;
+        }
+    }
+}
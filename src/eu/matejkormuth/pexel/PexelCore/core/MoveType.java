@@ -0,0 +1,84 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import org.bukkit.Location;
+
+/**
+ * Type of player's move. Types are ordered from the most common and least significant to the least common and most
+ * significant. Each move type includes all previous types (player that crossed chunk border also crossed block border).
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public enum MoveType {
+    /**
+     * Player only rotated his head.
+     */
+    ROTATION,
+    /**
+     * Player moved inside one block.
+     */
+    SUB_BLOCK,
+    /**
+     * Player moved to another block in the same chunk.
+     */
+    BLOCK,
+    /**
+     * Player moved to another chunk or another world.
+     */
+    CHUNK;
+    
+    /**
+     * Returns whether this move type includes specified move type.
+     * 
+     * @param type
+     *            type to check
+     * @return true if this move is at least as significant as specified type
+     */
+    public boolean includes(final MoveType type) {
+        return this.ordinal() >= type.ordinal();
+    }
+    
+    /**
+     * Classifies move between specified locations.
+     * 
+     * @param from
+     *            previous location
+     * @param to
+     *            new location
+     * @return type of move
+     */
+    public static MoveType of(final Location from, final Location to) {
+        int fromX = from.getBlockX();
+        int fromZ = from.getBlockZ();
+        int toX = to.getBlockX();
+        int toZ = to.getBlockZ();
+        
+        if ((fromX >> 4) != (toX >> 4) || (fromZ >> 4) != (toZ >> 4)
+                || from.getWorld() != to.getWorld())
+            return CHUNK;
+        if (fromX != toX || fromZ != toZ || from.getBlockY() != to.getBlockY())
+            return BLOCK;
+        if (from.getX() != to.getX() || from.getY() != to.getY()
+                || from.getZ() != to.getZ())
+            return SUB_BLOCK;
+        return ROTATION;
+    }
+}
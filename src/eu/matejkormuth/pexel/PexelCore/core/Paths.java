@@ -40,6 +40,33 @@ public class Paths {
                 + uuid.toString() + ".yml";
     }
     
+    /**
+     * Returns path of directory with YAML player profiles, that were used before profile store.
+     * 
+     * @return
+     */
+    public static String yamlProfiles() {
+        return Pexel.getCore().getDataFolder().getAbsolutePath() + "/profiles";
+    }
+    
+    /**
+     * Returns path of profile store directory.
+     * 
+     * @return
+     */
+    public static String profileStore() {
+        return Pexel.getCore().getDataFolder().getAbsolutePath() + "/profilestore";
+    }
+    
+    /**
+     * Returns path of report of last shutdown checkpoint.
+     * 
+     * @return
+     */
+    public static String checkpointReport() {
+        return Pexel.getCore().getDataFolder().getAbsolutePath() + "/checkpoint.yml";
+    }
+    
     public static String lobbiesPath() {
         return Pexel.getCore().getDataFolder().getAbsolutePath() + "/lobbies.yml";
     }
@@ -61,6 +88,37 @@ public class Paths {
                 + ".record";
     }
     
+    /**
+     * Returns path of directory with arena maps. Arena option files ({@link #arenaPath(String)}) are stored in other
+     * directory, so they are not loaded as maps.
+     * 
+     * @return
+     */
+    public static String maps() {
+        return Pexel.getCore().getDataFolder().getAbsolutePath() + "/maps";
+    }
+    
+    /**
+     * Returns path of pristine block snapshot of arena.
+     * 
+     * @param name
+     *            name of arena
+     * @return
+     */
+    public static String arenaSnapshot(final String name) {
+        return Pexel.getCore().getDataFolder().getAbsolutePath() + "/snapshots/" + name
+                + ".snapshot";
+    }
+    
+    /**
+     * Returns path of directory with persistent rollback journals.
+     * 
+     * @return
+     */
+    public static String rollbackJournals() {
+        return Pexel.getCore().getDataFolder().getAbsolutePath() + "/journals";
+    }
+    
     public static String arenaPath(final String name) {
         return Pexel.getCore().getDataFolder().getAbsolutePath() + "/arenas/" + name
                 + ".xml";
@@ -18,22 +18,30 @@
 // @formatter:on
 package eu.matejkormuth.pexel.PexelCore.core;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlID;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 
 import eu.matejkormuth.pexel.PexelCore.util.ParticleEffect2;
 
@@ -52,18 +60,23 @@ public class PlayerProfile {
      * Player's friends.
      */
     @XmlAttribute
-    protected final List<UUID>             friends       = new ArrayList<UUID>();
+    protected final Set<UUID>              friends       = new LinkedHashSet<UUID>();
     /**
      * Player's foes.
      */
     @XmlAttribute
-    protected final List<UUID>             foes          = new ArrayList<UUID>();
+    protected final Set<UUID>              foes          = new LinkedHashSet<UUID>();
     /**
      * Player's settings.
      */
     @XmlAttribute
     protected final Map<Settings, Boolean> settings      = new HashMap<Settings, Boolean>();
     
+    /**
+     * Version of binary format created by {@link #snapshot()}.
+     */
+    public static final byte               FORMAT_VERSION = 1;
+    
     /**
      * Spectating status.
      */
@@ -89,6 +102,19 @@ public class PlayerProfile {
      * Represents party, that player is currently in. If is player not in any party, it is null.
      */
     protected transient Party              party;
+    /**
+     * Whether is this profile only a placeholder used until the real profile is loaded. Placeholder profiles are
+     * never saved.
+     */
+    protected transient boolean            placeholder   = false;
+    /**
+     * Whether was this profile changed since it was last saved.
+     */
+    protected transient volatile boolean   dirty         = false;
+    /**
+     * Count of snapshots of this profile, that were not written yet.
+     */
+    protected final transient AtomicInteger pendingWrites = new AtomicInteger();
     
     /**
      * Creates player profile from Player object.
@@ -108,13 +134,37 @@ public class PlayerProfile {
         this.uuid = player;
     }
     
+    /**
+     * Creates placeholder profile, that is used while real profile of player is being loaded.
+     * 
+     * @param player
+     * @return placeholder profile
+     */
+    public static PlayerProfile placeholder(final UUID player) {
+        PlayerProfile profile = new PlayerProfile(player);
+        profile.placeholder = true;
+        return profile;
+    }
+    
+    /**
+     * Returns whether is this profile only a placeholder, that will not be saved.
+     * 
+     * @return true if this profile is placeholder
+     */
+    public boolean isPlaceholder() {
+        return this.placeholder;
+    }
+    
     /**
      * Adds friend.
      * 
      * @param player
      */
     public void addFriend(final UUID player) {
-        this.friends.add(player);
+        if (this.friends.add(player)) {
+            this.dirty = true;
+            StorageEngine.getSocialGraph().addFriend(this.uuid, player);
+        }
     }
     
     /**
@@ -123,15 +173,49 @@ public class PlayerProfile {
      * @param player
      */
     public void removeFriend(final UUID player) {
-        this.friends.remove(player);
+        if (this.friends.remove(player)) {
+            this.dirty = true;
+            StorageEngine.getSocialGraph().removeFriend(this.uuid, player);
+        }
     }
     
     public void addFoe(final UUID player) {
-        this.foes.add(player);
+        if (this.foes.add(player)) {
+            this.dirty = true;
+            StorageEngine.getSocialGraph().addFoe(this.uuid, player);
+        }
     }
     
     public void removeFoe(final UUID player) {
-        this.foes.remove(player);
+        if (this.foes.remove(player)) {
+            this.dirty = true;
+            StorageEngine.getSocialGraph().removeFoe(this.uuid, player);
+        }
+    }
+    
+    /**
+     * Returns whether was this profile changed since it was last saved.
+     * 
+     * @return true if profile should be saved
+     */
+    public boolean isDirty() {
+        return this.dirty;
+    }
+    
+    /**
+     * Marks this profile as changed, so it will be saved by {@link ProfileWriter}.
+     */
+    public void markDirty() {
+        this.dirty = true;
+    }
+    
+    /**
+     * Returns whether are all changes of this profile written to disk.
+     * 
+     * @return true if the profile is not changed and has no pending writes
+     */
+    public boolean isPersisted() {
+        return !this.dirty && this.pendingWrites.get() == 0;
     }
     
     /**
@@ -144,16 +228,16 @@ public class PlayerProfile {
     }
     
     /**
-     * Return list of player's friends.
+     * Return immutable copy of player's friends.
      * 
      * @return
      */
-    public List<UUID> getFriends() {
-        return ImmutableList.copyOf(this.friends);
+    public Set<UUID> getFriends() {
+        return ImmutableSet.copyOf(this.friends);
     }
     
-    public List<UUID> getFoes() {
-        return ImmutableList.copyOf(this.foes);
+    public Set<UUID> getFoes() {
+        return ImmutableSet.copyOf(this.foes);
     }
     
     /**
@@ -191,6 +275,7 @@ public class PlayerProfile {
      */
     public void setSetting(final Settings setting, final boolean value) {
         this.settings.put(setting, value);
+        this.dirty = true;
     }
     
     /**
@@ -212,20 +297,118 @@ public class PlayerProfile {
     }
     
     /**
-     * Saves player's profile to file.
+     * Creates binary copy of this profile's data, that can be saved from other thread, and marks this profile as not
+     * changed. Should be called from main thread.
      * 
-     * @param path
-     *            path to save
+     * @return snapshot of profile
      */
-    public void save(final String path) {
+    public byte[] snapshot() {
+        this.dirty = false;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                64 + 16 * (this.friends.size() + this.foes.size()));
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(PlayerProfile.FORMAT_VERSION);
+            out.writeInt(this.points);
+            out.writeInt(this.warnCount);
+            out.writeUTF(this.lastKnownName == null ? "" : this.lastKnownName);
+            PlayerProfile.writeUUIDs(out, this.friends);
+            PlayerProfile.writeUUIDs(out, this.foes);
+            out.writeInt(this.settings.size());
+            for (Map.Entry<Settings, Boolean> setting : this.settings.entrySet()) {
+                out.writeUTF(setting.getKey().name());
+                out.writeBoolean(setting.getValue());
+            }
+        } catch (IOException e) {
+            // Can't happen, writing to memory.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static void writeUUIDs(final DataOutputStream out, final Set<UUID> uuids)
+            throws IOException {
+        out.writeInt(uuids.size());
+        for (UUID uuid : uuids) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+    
+    private static void readUUIDs(final DataInputStream in, final Set<UUID> uuids)
+            throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++)
+            uuids.add(new UUID(in.readLong(), in.readLong()));
+    }
+    
+    /**
+     * Loads player profile from data created by {@link #snapshot()}.
+     * 
+     * @param uuid
+     *            uuid of player
+     * @param data
+     *            binary data of profile
+     * @return loaded profile
+     * @throws IOException
+     *             when data are damaged or have unsupported format
+     */
+    public static PlayerProfile fromBytes(final UUID uuid, final byte[] data)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readByte();
+        if (version != PlayerProfile.FORMAT_VERSION)
+            throw new IOException("Unsupported profile format version " + version + "!");
+        
+        PlayerProfile profile = new PlayerProfile(uuid);
+        profile.points = in.readInt();
+        profile.warnCount = in.readInt();
+        profile.lastKnownName = in.readUTF();
+        PlayerProfile.readUUIDs(in, profile.friends);
+        PlayerProfile.readUUIDs(in, profile.foes);
+        int settings = in.readInt();
+        for (int i = 0; i < settings; i++) {
+            String key = in.readUTF();
+            boolean value = in.readBoolean();
+            try {
+                profile.settings.put(Settings.valueOf(key), value);
+            } catch (IllegalArgumentException e) {
+                Log.warn("Unknown setting " + key + " in profile " + uuid.toString());
+            }
+        }
+        return profile;
+    }
+    
+    private YamlConfiguration toYaml() {
         YamlConfiguration yaml = new YamlConfiguration();
         
         yaml.set("player.uuid", this.uuid.toString());
         yaml.set("player.points", this.points);
         yaml.set("player.warnCount", this.warnCount);
         yaml.set("player.lastKnownName", this.lastKnownName);
-        yaml.set("player.friends", this.friends);
-        yaml.set("player.foes", this.foes);
+        List<String> friends = new ArrayList<String>(this.friends.size());
+        for (UUID friend : this.friends)
+            friends.add(friend.toString());
+        yaml.set("player.friends", friends);
+        List<String> foes = new ArrayList<String>(this.foes.size());
+        for (UUID foe : this.foes)
+            foes.add(foe.toString());
+        yaml.set("player.foes", foes);
+        for (Map.Entry<Settings, Boolean> setting : this.settings.entrySet())
+            yaml.set("player.settings." + setting.getKey().name(), setting.getValue());
+        
+        return yaml;
+    }
+    
+    /**
+     * Saves player's profile to file.
+     * 
+     * @param path
+     *            path to save
+     */
+    public void save(final String path) {
+        this.dirty = false;
+        YamlConfiguration yaml = this.toYaml();
         
         try {
             yaml.save(new File(path));
@@ -248,16 +431,27 @@ public class PlayerProfile {
         PlayerProfile profile = new PlayerProfile(uuid);
         
         profile.points = yaml.getInt("player.points");
+        profile.warnCount = yaml.getInt("player.warnCount");
         profile.lastKnownName = yaml.getString("player.lastKnownName");
         
         List<?> friends = yaml.getList("player.friends");
         List<?> foes = yaml.getList("player.foes");
         
         for (Object obj : friends)
-            profile.addFriend(UUID.fromString(obj.toString()));
+            profile.friends.add(UUID.fromString(obj.toString()));
         for (Object obj : foes)
-            profile.addFoe(UUID.fromString(obj.toString()));
+            profile.foes.add(UUID.fromString(obj.toString()));
+        
+        ConfigurationSection settings = yaml.getConfigurationSection("player.settings");
+        if (settings != null)
+            for (String key : settings.getKeys(false))
+                try {
+                    profile.settings.put(Settings.valueOf(key), settings.getBoolean(key));
+                } catch (IllegalArgumentException e) {
+                    Log.warn("Unknown setting " + key + " in profile " + uuid.toString());
+                }
         
+        profile.dirty = false;
         return profile;
     }
     
@@ -287,6 +481,7 @@ public class PlayerProfile {
      */
     public void addPoints(final int points) {
         this.points += points;
+        this.dirty = true;
     }
     
     public void saveXML(final String profilePath) {
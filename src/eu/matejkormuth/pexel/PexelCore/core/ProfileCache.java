@@ -0,0 +1,222 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.matejkormuth.pexel.PexelCore.util.BukkitTimer;
+
+/**
+ * Bounded cache of player profiles. Profiles of online players are pinned in memory. Profiles of players, that left,
+ * are kept for quick rejoins and evicted when they are idle for too long or when there are too many of them, but only
+ * after their changes were written by {@link ProfileWriter}.
+ * <p>
+ * Profiles can be read from any thread, all other methods should be called from main thread.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class ProfileCache {
+    /**
+     * All profiles in memory.
+     */
+    private final ConcurrentMap<UUID, PlayerProfile> resident  = new ConcurrentHashMap<UUID, PlayerProfile>();
+    /**
+     * Players, whose profiles can't be evicted.
+     */
+    private final Set<UUID>                          online    = new HashSet<UUID>();
+    /**
+     * Players, that left, with time of leaving, ordered from the oldest.
+     */
+    private final LinkedHashMap<UUID, Long>          offline   = new LinkedHashMap<UUID, Long>();
+    private final int                                maxOffline;
+    private final long                               idleTime;
+    
+    private final AtomicLong                         hits      = new AtomicLong();
+    private final AtomicLong                         misses    = new AtomicLong();
+    private long                                     evictions = 0;
+    private BukkitTimer                              timer;
+    
+    /**
+     * Creates new profile cache.
+     * 
+     * @param maxOffline
+     *            maximum count of cached profiles of offline players
+     * @param idleTime
+     *            time in milliseconds, after which profile of offline player is evicted
+     */
+    public ProfileCache(final int maxOffline, final long idleTime) {
+        this.maxOffline = maxOffline;
+        this.idleTime = idleTime;
+    }
+    
+    /**
+     * Starts periodic eviction.
+     * 
+     * @param interval
+     *            eviction interval in ticks
+     */
+    public void start(final int interval) {
+        this.timer = new BukkitTimer(interval, new Runnable() {
+            @Override
+            public void run() {
+                ProfileCache.this.evict();
+            }
+        });
+        this.timer.start();
+    }
+    
+    /**
+     * Returns profile of specified player or null, if the profile is not in memory.
+     * 
+     * @param uuid
+     *            uuid of player
+     * @return profile or null
+     */
+    public PlayerProfile get(final UUID uuid) {
+        return this.resident.get(uuid);
+    }
+    
+    /**
+     * Returns profile of specified player or null and counts the lookup as a hit or a miss. Should be used when the
+     * profile is going to be loaded from disk, if it is not in memory.
+     * 
+     * @param uuid
+     *            uuid of player
+     * @return profile or null
+     */
+    public PlayerProfile lookup(final UUID uuid) {
+        PlayerProfile profile = this.resident.get(uuid);
+        if (profile != null)
+            this.hits.incrementAndGet();
+        else
+            this.misses.incrementAndGet();
+        return profile;
+    }
+    
+    /**
+     * Adds profile of online player to cache. The profile will not be evicted until {@link #unpin(UUID)} is called.
+     * 
+     * @param profile
+     *            profile of online player
+     */
+    public void pin(final PlayerProfile profile) {
+        this.resident.put(profile.getUniqueId(), profile);
+        this.online.add(profile.getUniqueId());
+        this.offline.remove(profile.getUniqueId());
+    }
+    
+    /**
+     * Marks profile of player, that left, as evictable.
+     * 
+     * @param uuid
+     *            uuid of player
+     */
+    public void unpin(final UUID uuid) {
+        if (this.online.remove(uuid))
+            this.offline.put(uuid, System.currentTimeMillis());
+    }
+    
+    /**
+     * Evicts profiles of offline players, that are idle for too long or that exceed maximum count. Profiles with
+     * changes, that were not written yet, are kept until next eviction.
+     */
+    public void evict() {
+        long now = System.currentTimeMillis();
+        int excess = this.offline.size() - this.maxOffline;
+        Iterator<Map.Entry<UUID, Long>> it = this.offline.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, Long> entry = it.next();
+            // Entries are ordered by time of leaving, the rest is newer.
+            if (excess <= 0 && now - entry.getValue() < this.idleTime)
+                break;
+            
+            PlayerProfile profile = this.resident.get(entry.getKey());
+            if (profile == null || profile.isPersisted()) {
+                it.remove();
+                this.resident.remove(entry.getKey());
+                this.evictions++;
+                excess--;
+            }
+        }
+    }
+    
+    /**
+     * Returns all profiles in memory.
+     * 
+     * @return profiles in memory
+     */
+    public Collection<PlayerProfile> values() {
+        return this.resident.values();
+    }
+    
+    /**
+     * Returns count of profiles in memory.
+     * 
+     * @return count of resident profiles
+     */
+    public int size() {
+        return this.resident.size();
+    }
+    
+    /**
+     * Returns count of pinned profiles of online players.
+     * 
+     * @return count of pinned profiles
+     */
+    public int getPinnedCount() {
+        return this.online.size();
+    }
+    
+    /**
+     * Returns count of lookups, that found profile in memory.
+     * 
+     * @return count of hits
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+    
+    /**
+     * Returns count of lookups, that did not find profile in memory.
+     * 
+     * @return count of misses
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+    
+    /**
+     * Returns count of evicted profiles.
+     * 
+     * @return count of evictions
+     */
+    public long getEvictions() {
+        return this.evictions;
+    }
+}
@@ -0,0 +1,615 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured store of player profiles. Profiles are appended to segment files as binary records (see
+ * {@link PlayerProfile#snapshot()}), position of the newest record of each player is kept in memory. Full (sealed)
+ * segments are memory-mapped once, records of active segment are read by positional reads of its file.
+ * <p>
+ * Each record has format <code>[int length][int crc32][long uuid msb][long uuid lsb][profile data]</code>, where length
+ * and crc32 are computed over uuid and profile data. When store is opened, all segments are scanned, index is rebuilt
+ * and damaged records at the end of last segment (for example from crash while writing) are cut off. Damaged records
+ * in older segments are skipped. Old versions of records are removed by compaction, that rewrites live records to new
+ * segments.
+ * <p>
+ * Records should be written only from one thread, reads are allowed from any thread.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class ProfileStore {
+    /**
+     * Maximum size of one segment in bytes.
+     */
+    private static final long                    MAX_SEGMENT_SIZE    = 64 * 1024 * 1024;
+    /**
+     * Size of store in bytes, before which compaction does not happen.
+     */
+    private static final long                    COMPACTION_MIN_SIZE = 4 * 1024 * 1024;
+    /**
+     * Size of record header (length and crc32).
+     */
+    private static final int                     HEADER_SIZE         = 8;
+    /**
+     * Size of key (uuid) of record.
+     */
+    private static final int                     KEY_SIZE            = 16;
+    /**
+     * Amount of profiles written in one batch while migrating.
+     */
+    private static final int                     MIGRATION_BATCH     = 1000;
+    private static final String                  SEGMENT_SUFFIX      = ".seg";
+    
+    private final File                           directory;
+    /**
+     * Location (segment id and position) of newest record of each profile.
+     */
+    private final ConcurrentMap<UUID, Long>      index               = new ConcurrentHashMap<UUID, Long>();
+    /**
+     * Open segments by ids. Modified only while holding write lock.
+     */
+    private final TreeMap<Integer, Segment>      segments            = new TreeMap<Integer, Segment>();
+    private final ReadWriteLock                  lock                = new ReentrantReadWriteLock();
+    /**
+     * Segment, that new records are appended to.
+     */
+    private Segment                              active;
+    /**
+     * Size of all records, that are in index.
+     */
+    private volatile long                        liveBytes           = 0;
+    /**
+     * Size of all segments.
+     */
+    private volatile long                        totalBytes          = 0;
+    
+    /**
+     * Creates new profile store in specified directory. Store must be opened before use.
+     * 
+     * @param directory
+     *            directory with segments
+     */
+    public ProfileStore(final File directory) {
+        this.directory = directory;
+    }
+    
+    /**
+     * Opens all segments, rebuilds index and cuts off damaged records at the end of last segment.
+     * 
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        Log.partEnable("ProfileStore");
+        this.directory.mkdirs();
+        File[] files = this.directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null)
+            throw new IOException("Can't list profile store directory " + this.directory + "!");
+        
+        List<Integer> ids = new ArrayList<Integer>(files.length);
+        for (File file : files) {
+            try {
+                ids.add(Integer.parseInt(file.getName().substring(0,
+                        file.getName().length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                Log.warn("Skipping file " + file.getName()
+                        + " in profile store, invalid segment name.");
+            }
+        }
+        Collections.sort(ids);
+        
+        for (int i = 0; i < ids.size(); i++) {
+            Segment segment = this.openSegment(ids.get(i));
+            this.segments.put(segment.id, segment);
+            // All segments except the last one are full.
+            boolean last = i == ids.size() - 1;
+            if (!last)
+                segment.seal();
+            this.recover(segment, last);
+        }
+        
+        if (this.segments.isEmpty()) {
+            this.active = this.openSegment(0);
+            this.segments.put(0, this.active);
+        }
+        else {
+            this.active = this.segments.lastEntry().getValue();
+        }
+        Log.info("Loaded " + this.index.size() + " profiles from " + this.segments.size()
+                + " segments.");
+    }
+    
+    /**
+     * Scans specified segment and adds its records to index. Everything after first damaged record of last segment is
+     * cut off, because it was not written completely. Damaged records of sealed segments are skipped and records after
+     * them are kept, file is not modified.
+     */
+    private void recover(final Segment segment, final boolean last) throws IOException {
+        CRC32 crc = new CRC32();
+        int position = 0;
+        // Start of damaged bytes, that were not reported yet, or -1.
+        int damaged = -1;
+        while (position + HEADER_SIZE <= segment.size) {
+            byte[] body = ProfileStore.readRecord(segment, position, crc);
+            if (body == null) {
+                if (last)
+                    break;
+                // Search for next valid record.
+                if (damaged < 0)
+                    damaged = position;
+                position++;
+                continue;
+            }
+            if (damaged >= 0) {
+                Log.warn("Segment " + segment.file.getName() + " of profile store is damaged at "
+                        + damaged + ", skipping " + (position - damaged) + " bytes.");
+                damaged = -1;
+            }
+            
+            ByteBuffer key = ByteBuffer.wrap(body);
+            this.put(new UUID(key.getLong(), key.getLong()), segment.id, position, body.length);
+            position += HEADER_SIZE + body.length;
+        }
+        
+        if (last && position < segment.size) {
+            Log.warn("Segment " + segment.file.getName() + " of profile store is damaged at "
+                    + position + ", cutting off " + (segment.size - position) + " bytes.");
+            segment.truncate(position);
+        }
+        else if (!last && (damaged >= 0 || position < segment.size)) {
+            int start = damaged >= 0 ? damaged : position;
+            Log.warn("Segment " + segment.file.getName() + " of profile store is damaged at "
+                    + start + ", skipping " + (segment.size - start) + " bytes.");
+        }
+        this.totalBytes += segment.size;
+    }
+    
+    /**
+     * Returns body (uuid and profile data) of record at specified position or null, if there is no valid record.
+     */
+    private static byte[] readRecord(final Segment segment, final int position, final CRC32 crc)
+            throws IOException {
+        ByteBuffer header = segment.read(position, HEADER_SIZE);
+        int length = header.getInt(0);
+        int checksum = header.getInt(4);
+        if (length < KEY_SIZE || position + HEADER_SIZE + (long) length > segment.size)
+            return null;
+        
+        byte[] body = new byte[length];
+        segment.read(position + HEADER_SIZE, length).get(body);
+        crc.reset();
+        crc.update(body, 0, length);
+        return (int) crc.getValue() == checksum ? body : null;
+    }
+    
+    private Segment openSegment(final int id) throws IOException {
+        return new Segment(id, new File(this.directory, String.format("%08d", id)
+                + SEGMENT_SUFFIX));
+    }
+    
+    private static long location(final int segment, final int position) {
+        return ((long) segment << 32) | (position & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Updates index and statistics with new record. Should be called while holding write lock.
+     */
+    private void put(final UUID uuid, final int segment, final int position,
+            final int length) throws IOException {
+        Long old = this.index.put(uuid, ProfileStore.location(segment, position));
+        if (old != null)
+            this.liveBytes -= HEADER_SIZE + this.lengthAt(old);
+        this.liveBytes += HEADER_SIZE + length;
+    }
+    
+    private int lengthAt(final long location) throws IOException {
+        Segment segment = this.segments.get((int) (location >>> 32));
+        int position = (int) location;
+        return segment.read(position, 4).getInt(0);
+    }
+    
+    /**
+     * Returns whether this store contains profile of specified player.
+     * 
+     * @param uuid
+     *            uuid of player
+     * @return true if profile is stored
+     */
+    public boolean contains(final UUID uuid) {
+        return this.index.containsKey(uuid);
+    }
+    
+    /**
+     * Throws exception if this store was not opened successfully, so profiles are never read from or written to
+     * incomplete store.
+     */
+    private void checkOpen() throws IOException {
+        if (this.active == null)
+            throw new IOException("Profile store is not open!");
+    }
+    
+    /**
+     * Reads newest profile of specified player or returns null, if this store does not contain the profile.
+     * 
+     * @param uuid
+     *            uuid of player
+     * @return profile or null
+     * @throws IOException
+     */
+    public PlayerProfile read(final UUID uuid) throws IOException {
+        this.checkOpen();
+        byte[] data;
+        this.lock.readLock().lock();
+        try {
+            Long location = this.index.get(uuid);
+            if (location == null)
+                return null;
+            
+            Segment segment = this.segments.get((int) (location >>> 32));
+            int position = (int) (long) location;
+            int length = segment.read(position, 4).getInt(0);
+            data = new byte[length - KEY_SIZE];
+            segment.read(position + HEADER_SIZE + KEY_SIZE, data.length).get(data);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return PlayerProfile.fromBytes(uuid, data);
+    }
+    
+    /**
+     * Appends specified profiles to store and forces them to disk. Should be called only from one thread.
+     * 
+     * @param profiles
+     *            uuids and binary data of profiles
+     * @throws IOException
+     */
+    public void write(final Map<UUID, byte[]> profiles) throws IOException {
+        this.checkOpen();
+        CRC32 crc = new CRC32();
+        for (Map.Entry<UUID, byte[]> entry : profiles.entrySet()) {
+            byte[] data = entry.getValue();
+            int length = KEY_SIZE + data.length;
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+            record.position(HEADER_SIZE);
+            record.putLong(entry.getKey().getMostSignificantBits());
+            record.putLong(entry.getKey().getLeastSignificantBits());
+            record.put(data);
+            crc.reset();
+            crc.update(record.array(), HEADER_SIZE, length);
+            record.putInt(0, length);
+            record.putInt(4, (int) crc.getValue());
+            record.rewind();
+            
+            if (this.active.size > 0 && this.active.size + record.capacity() > MAX_SEGMENT_SIZE)
+                this.roll();
+            
+            // Write data outside of lock, readers do not see it until index is updated.
+            Segment segment = this.active;
+            int position = (int) segment.size;
+            while (record.hasRemaining())
+                segment.channel.write(record, position + record.position());
+            
+            this.lock.writeLock().lock();
+            try {
+                segment.size += record.capacity();
+                this.totalBytes += record.capacity();
+                this.put(entry.getKey(), segment.id, position, length);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+        this.active.channel.force(false);
+    }
+    
+    /**
+     * Starts new active segment.
+     */
+    private void roll() throws IOException {
+        this.active.channel.force(false);
+        this.active.seal();
+        Segment segment = this.openSegment(this.active.id + 1);
+        this.lock.writeLock().lock();
+        try {
+            this.segments.put(segment.id, segment);
+            this.active = segment;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Compacts the store, if more than half of it are old versions of records. Should be called from the same thread
+     * as {@link #write(Map)}.
+     * 
+     * @throws IOException
+     */
+    public void compactIfNeeded() throws IOException {
+        if (this.totalBytes >= COMPACTION_MIN_SIZE && this.liveBytes * 2 < this.totalBytes)
+            this.compact();
+    }
+    
+    /**
+     * Rewrites newest records of all profiles to new segments and deletes old segments. Should be called from the same
+     * thread as {@link #write(Map)}.
+     * 
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        Log.info("Compacting profile store (" + this.liveBytes + " of " + this.totalBytes
+                + " bytes are live)...");
+        List<Segment> old = new ArrayList<Segment>(this.segments.values());
+        List<Segment> created = new ArrayList<Segment>();
+        Map<UUID, Long> moved = new HashMap<UUID, Long>(this.index.size());
+        
+        Segment target = this.openSegment(this.active.id + 1);
+        created.add(target);
+        // Only this thread modifies index and segments, so they can be read without lock.
+        for (Map.Entry<UUID, Long> entry : this.index.entrySet()) {
+            long location = entry.getValue();
+            Segment source = this.segments.get((int) (location >>> 32));
+            int position = (int) location;
+            int size = HEADER_SIZE + source.read(position, 4).getInt(0);
+            ByteBuffer record = source.read(position, size);
+            
+            if (target.size > 0 && target.size + size > MAX_SEGMENT_SIZE) {
+                target.channel.force(false);
+                target.seal();
+                target = this.openSegment(target.id + 1);
+                created.add(target);
+            }
+            int newPosition = (int) target.size;
+            while (record.hasRemaining())
+                target.channel.write(record, newPosition + record.position());
+            target.size += size;
+            moved.put(entry.getKey(), ProfileStore.location(target.id, newPosition));
+        }
+        target.channel.force(false);
+        
+        long newSize = 0;
+        this.lock.writeLock().lock();
+        try {
+            for (Segment segment : old)
+                this.segments.remove(segment.id);
+            for (Segment segment : created) {
+                this.segments.put(segment.id, segment);
+                newSize += segment.size;
+            }
+            this.index.putAll(moved);
+            this.active = target;
+            this.totalBytes = newSize;
+            this.liveBytes = newSize;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        
+        // New segments are complete on disk, old segments can be deleted.
+        for (Segment segment : old) {
+            segment.channel.close();
+            if (!segment.file.delete())
+                Log.warn("Can't delete old segment " + segment.file.getName() + "!");
+        }
+        Log.info("Profile store compacted to " + newSize + " bytes.");
+    }
+    
+    /**
+     * Migrates player profiles from YAML files in specified directory to this store. Profiles, that are already in
+     * store, are skipped. Directory is renamed after migration, so migration is done only once.
+     * 
+     * @param directory
+     *            directory with YAML profiles
+     * @return count of migrated profiles
+     * @throws IOException
+     */
+    public int migrate(final File directory) throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(".yml");
+            }
+        });
+        if (files == null || files.length == 0)
+            return 0;
+        
+        Log.info("Migrating " + files.length + " YAML profiles to profile store...");
+        Map<UUID, byte[]> batch = new LinkedHashMap<UUID, byte[]>();
+        int migrated = 0;
+        for (File file : files) {
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(file.getName().substring(0,
+                        file.getName().length() - 4));
+            } catch (IllegalArgumentException e) {
+                Log.warn("Skipping profile " + file.getName() + ", invalid file name.");
+                continue;
+            }
+            if (this.contains(uuid))
+                continue;
+            
+            try {
+                batch.put(uuid, PlayerProfile.load(file.getAbsolutePath()).snapshot());
+            } catch (RuntimeException e) {
+                Log.warn("Skipping profile " + file.getName() + ": " + e.toString());
+                continue;
+            }
+            
+            if (batch.size() >= MIGRATION_BATCH) {
+                this.write(batch);
+                migrated += batch.size();
+                batch.clear();
+                Log.info("Migrated " + migrated + " profiles...");
+            }
+        }
+        this.write(batch);
+        migrated += batch.size();
+        
+        File done = new File(directory.getParentFile(), directory.getName() + ".migrated");
+        if (!directory.renameTo(done))
+            Log.warn("Can't rename " + directory.getName() + " to " + done.getName()
+                    + ", migration will be checked again on next start.");
+        Log.info("Migrated " + migrated + " profiles.");
+        return migrated;
+    }
+    
+    /**
+     * Returns unmodifiable set of uuids of all stored profiles.
+     * 
+     * @return uuids of stored profiles
+     */
+    public Set<UUID> keys() {
+        return Collections.unmodifiableSet(this.index.keySet());
+    }
+    
+    /**
+     * Returns count of profiles in store.
+     * 
+     * @return count of profiles
+     */
+    public int size() {
+        return this.index.size();
+    }
+    
+    /**
+     * Returns size of newest records of all profiles in bytes.
+     * 
+     * @return size of live records
+     */
+    public long getLiveBytes() {
+        return this.liveBytes;
+    }
+    
+    /**
+     * Returns size of all segments in bytes.
+     * 
+     * @return size of store
+     */
+    public long getTotalBytes() {
+        return this.totalBytes;
+    }
+    
+    /**
+     * Forces all segments to disk and closes them.
+     */
+    public void close() {
+        this.lock.writeLock().lock();
+        try {
+            for (Segment segment : this.segments.values()) {
+                try {
+                    segment.channel.force(false);
+                    segment.channel.close();
+                } catch (IOException e) {
+                    Log.addProblem("Can't close profile store segment: " + e.toString());
+                }
+            }
+            this.segments.clear();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        Log.partDisable("ProfileStore");
+    }
+    
+    /**
+     * One segment file.
+     */
+    private static final class Segment {
+        private final int                 id;
+        private final File                file;
+        private final FileChannel         channel;
+        /**
+         * Size of valid data in segment.
+         */
+        private long                      size;
+        /**
+         * Mapping of whole segment, null until segment is sealed.
+         */
+        private volatile MappedByteBuffer buffer;
+        
+        @SuppressWarnings("resource")
+        private Segment(final int id, final File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.size = this.channel.size();
+        }
+        
+        /**
+         * Maps whole segment. Called once, when no more records will be appended to segment.
+         */
+        private void seal() throws IOException {
+            if (this.buffer == null)
+                this.buffer = this.channel.map(MapMode.READ_ONLY, 0, this.size);
+        }
+        
+        /**
+         * Returns buffer with specified bytes of segment, positioned at 0. Sealed segments are read from mapping,
+         * others by positional read, so appending records does not remap segment.
+         */
+        private ByteBuffer read(final long position, final int length) throws IOException {
+            MappedByteBuffer mapped = this.buffer;
+            if (mapped != null) {
+                ByteBuffer slice = mapped.duplicate();
+                slice.limit((int) position + length);
+                slice.position((int) position);
+                return slice.slice();
+            }
+            
+            ByteBuffer bytes = ByteBuffer.allocate(length);
+            while (bytes.hasRemaining())
+                if (this.channel.read(bytes, position + bytes.position()) < 0)
+                    throw new EOFException("Segment " + this.file.getName()
+                            + " ends before " + (position + length) + "!");
+            bytes.flip();
+            return bytes;
+        }
+        
+        private void truncate(final long size) throws IOException {
+            this.buffer = null;
+            this.channel.truncate(size);
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.matejkormuth.pexel.PexelCore.util.BukkitTimer;
+
+/**
+ * Write-behind persistence of player profiles. Changed (dirty) profiles are copied on main thread and written to
+ * {@link ProfileStore} in batches by one background thread, so main thread never waits for disk.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class ProfileWriter implements Checkpoint.Participant {
+    /**
+     * Maximum time in seconds, that shutdown waits for pending writes.
+     */
+    private static final int      SHUTDOWN_TIMEOUT = 60;
+    
+    private final ProfileStore    store;
+    private final BukkitTimer     timer;
+    private final ExecutorService writer;
+    /**
+     * Count of batches, that could not be written.
+     */
+    private final AtomicInteger   failures         = new AtomicInteger();
+    
+    /**
+     * Creates new profile writer, that flushes changed profiles to specified store every specified amount of ticks.
+     * 
+     * @param store
+     *            profile store
+     * @param interval
+     *            flush interval in ticks
+     */
+    public ProfileWriter(final ProfileStore store, final int interval) {
+        Log.partEnable("ProfileWriter");
+        this.store = store;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("ProfileWriter");
+                return thread;
+            }
+        });
+        this.timer = new BukkitTimer(interval, new Runnable() {
+            @Override
+            public void run() {
+                ProfileWriter.this.flushAll();
+            }
+        });
+        this.timer.start();
+    }
+    
+    /**
+     * Schedules write of specified profile, if it was changed. Should be called from main thread.
+     * 
+     * @param profile
+     *            profile to flush
+     */
+    public void flush(final PlayerProfile profile) {
+        if (!profile.isDirty() || profile.isPlaceholder())
+            return;
+        
+        List<PlayerProfile> batch = new ArrayList<PlayerProfile>(1);
+        batch.add(profile);
+        this.write(batch);
+    }
+    
+    /**
+     * Schedules write of all changed profiles in one batch. Should be called from main thread.
+     */
+    public void flushAll() {
+        List<PlayerProfile> batch = new ArrayList<PlayerProfile>();
+        for (PlayerProfile profile : StorageEngine.getProfileCache().values())
+            if (profile.isDirty() && !profile.isPlaceholder())
+                batch.add(profile);
+        
+        if (!batch.isEmpty())
+            this.write(batch);
+    }
+    
+    private void write(final List<PlayerProfile> batch) {
+        // Copy data on main thread, write them on writer thread.
+        final Map<UUID, byte[]> snapshots = new LinkedHashMap<UUID, byte[]>(
+                batch.size() * 2);
+        for (PlayerProfile profile : batch) {
+            profile.pendingWrites.incrementAndGet();
+            snapshots.put(profile.getUniqueId(), profile.snapshot());
+        }
+        
+        this.writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ProfileWriter.this.store.write(snapshots);
+                    ProfileWriter.this.store.compactIfNeeded();
+                } catch (IOException | RuntimeException e) {
+                    ProfileWriter.this.failures.incrementAndGet();
+                    Log.addProblem("Can't save player profiles: " + e.toString());
+                    // Try it again with next flush.
+                    for (PlayerProfile profile : batch)
+                        profile.markDirty();
+                } finally {
+                    for (PlayerProfile profile : batch)
+                        profile.pendingWrites.decrementAndGet();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Stops periodic flushing, flushes all changed profiles and returns writer, that waits for pending writes. Should
+     * be called from main thread when plugin is disabling.
+     */
+    @Override
+    public Checkpoint.Writer snapshot() {
+        this.timer.stop();
+        this.failures.set(0);
+        this.flushAll();
+        this.writer.shutdown();
+        Log.partDisable("ProfileWriter");
+        
+        return new Checkpoint.Writer() {
+            @Override
+            public void write() throws Exception {
+                ExecutorService writer = ProfileWriter.this.writer;
+                if (!writer.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS))
+                    throw new TimeoutException("Not all player profiles were saved in "
+                            + SHUTDOWN_TIMEOUT + " seconds!");
+                if (ProfileWriter.this.failures.get() > 0)
+                    throw new IOException(ProfileWriter.this.failures.get()
+                            + " batches of player profiles could not be saved!");
+            }
+        };
+    }
+}
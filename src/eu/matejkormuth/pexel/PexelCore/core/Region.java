@@ -20,13 +20,19 @@ package eu.matejkormuth.pexel.PexelCore.core;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -37,6 +43,7 @@ import org.bukkit.util.Vector;
 import com.sk89q.worldedit.bukkit.selections.Selection;
 
 import eu.matejkormuth.pexel.PexelCore.Pexel;
+import eu.matejkormuth.pexel.PexelCore.util.BukkitTimer;
 import eu.matejkormuth.pexel.PexelCore.util.SerializableVector;
 
 /**
@@ -61,11 +68,27 @@ public class Region {
      * World of region.
      */
     @XmlTransient
-    protected final World              w;
+    protected World                    w;
     
     @XmlElement(name = "world")
     protected final String             w_name;
     
+    // Normalized bounds, computed once from vectors.
+    @XmlTransient
+    private double                     minX, minY, minZ, maxX, maxY, maxZ;
+    @XmlTransient
+    private int                        minBlockX, minBlockY, minBlockZ, maxBlockX,
+            maxBlockY, maxBlockZ;
+    
+    /**
+     * Constructor for JAXB.
+     */
+    protected Region() {
+        this.v1 = null;
+        this.v2 = null;
+        this.w_name = null;
+    }
+    
     /**
      * Creates a new region from two locations.
      * 
@@ -79,6 +102,7 @@ public class Region {
         this.v2 = new SerializableVector(loc2.toVector());
         this.w = loc1.getWorld();
         this.w_name = loc1.getWorld().getName();
+        this.updateBounds();
     }
     
     /**
@@ -96,6 +120,7 @@ public class Region {
         this.v2 = new SerializableVector(v2);
         this.w = w;
         this.w_name = w.getName();
+        this.updateBounds();
     }
     
     /**
@@ -115,6 +140,7 @@ public class Region {
                 new Vector(-size, -size, -size)));
         this.w = w;
         this.w_name = w.getName();
+        this.updateBounds();
     }
     
     /**
@@ -128,6 +154,84 @@ public class Region {
         this.v2 = new SerializableVector(selection.getMaximumPoint().toVector());
         this.w = selection.getWorld();
         this.w_name = this.w.getName();
+        this.updateBounds();
+    }
+    
+    /**
+     * Computes normalized bounds from vectors.
+     */
+    private void updateBounds() {
+        this.minX = Math.min(this.v1.getX(), this.v2.getX());
+        this.minY = Math.min(this.v1.getY(), this.v2.getY());
+        this.minZ = Math.min(this.v1.getZ(), this.v2.getZ());
+        this.maxX = Math.max(this.v1.getX(), this.v2.getX());
+        this.maxY = Math.max(this.v1.getY(), this.v2.getY());
+        this.maxZ = Math.max(this.v1.getZ(), this.v2.getZ());
+        
+        this.minBlockX = (int) Math.floor(this.minX);
+        this.minBlockY = (int) Math.floor(this.minY);
+        this.minBlockZ = (int) Math.floor(this.minZ);
+        this.maxBlockX = (int) Math.floor(this.maxX);
+        this.maxBlockY = (int) Math.floor(this.maxY);
+        this.maxBlockZ = (int) Math.floor(this.maxZ);
+    }
+    
+    /**
+     * Called by JAXB after region was unmarshalled.
+     */
+    @SuppressWarnings("unused")
+    private void afterUnmarshal(final Unmarshaller unmarshaller, final Object parent) {
+        this.w = Bukkit.getWorld(this.w_name);
+        this.updateBounds();
+    }
+    
+    /**
+     * Returns whether the region's world is specified world. Name is compared only when the world object differs
+     * (region was unmarshalled before the world was loaded, or the world was reloaded).
+     */
+    private boolean isWorld(final World world) {
+        if (world == this.w)
+            return true;
+        if (world != null && world.getName().equals(this.w_name)) {
+            this.w = world;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Returns whether the point in specified world is inside this region. Does not allocate any objects.
+     * 
+     * @param world
+     *            world of point
+     * @param x
+     *            x coordinate
+     * @param y
+     *            y coordinate
+     * @param z
+     *            z coordinate
+     * @return true if point is inside this region
+     */
+    public boolean contains(final World world, final double x, final double y,
+            final double z) {
+        return this.isWorld(world) && x >= this.minX && x <= this.maxX && y >= this.minY
+                && y <= this.maxY && z >= this.minZ && z <= this.maxZ;
+    }
+    
+    /**
+     * Returns whether the block with specified coordinates is inside this region. World is not checked.
+     * 
+     * @param x
+     *            block x coordinate
+     * @param y
+     *            block y coordinate
+     * @param z
+     *            block z coordinate
+     * @return true if block is inside this region
+     */
+    public boolean contains(final int x, final int y, final int z) {
+        return x >= this.minBlockX && x <= this.maxBlockX && y >= this.minBlockY
+                && y <= this.maxBlockY && z >= this.minBlockZ && z <= this.maxBlockZ;
     }
     
     /**
@@ -138,10 +242,7 @@ public class Region {
      * @return
      */
     public boolean intersects(final Location loc) {
-        if (this.w.getName().equals(loc.getWorld().getName()))
-            return this.intersects(loc.toVector());
-        else
-            return false;
+        return this.contains(loc.getWorld(), loc.getX(), loc.getY(), loc.getZ());
     }
     
     /**
@@ -152,10 +253,9 @@ public class Region {
      * @return
      */
     public boolean intersectsXZ(final Location loc) {
-        if (this.w.getName().equals(loc.getWorld().getName()))
-            return this.intersectsXZ(loc.toVector());
-        else
-            return false;
+        return this.isWorld(loc.getWorld()) && loc.getX() >= this.minX
+                && loc.getX() <= this.maxX && loc.getZ() >= this.minZ
+                && loc.getZ() <= this.maxZ;
     }
     
     /**
@@ -166,14 +266,13 @@ public class Region {
      * @return
      */
     public boolean intersects(final Vector v) {
-        return Region.range(this.v1.getX(), this.v2.getX(), v.getX())
-                && Region.range(this.v1.getY(), this.v2.getY(), v.getY())
-                && Region.range(this.v1.getZ(), this.v2.getZ(), v.getZ());
+        return v.getX() >= this.minX && v.getX() <= this.maxX && v.getY() >= this.minY
+                && v.getY() <= this.maxY && v.getZ() >= this.minZ && v.getZ() <= this.maxZ;
     }
     
     public boolean intersectsXZ(final Vector v) {
-        return Region.range(this.v1.getX(), this.v2.getX(), v.getX())
-                && Region.range(this.v1.getZ(), this.v2.getZ(), v.getZ());
+        return v.getX() >= this.minX && v.getX() <= this.maxX && v.getZ() >= this.minZ
+                && v.getZ() <= this.maxZ;
     }
     
     /**
@@ -201,14 +300,6 @@ public class Region {
         yaml.set(string + ".world", this.w.getName());
     }
     
-    private final static boolean range(final double min, final double max,
-            final double value) {
-        if (max > min)
-            return (value <= max ? (value >= min ? true : false) : false);
-        else
-            return (value <= min ? (value >= max ? true : false) : false);
-    }
-    
     /**
      * Retruns first vector.
      * 
@@ -249,51 +340,66 @@ public class Region {
     }
     
     public double getMaxX() {
-        if (this.v1.getX() > this.v2.getX())
-            return this.v1.getX();
-        else
-            return this.v2.getX();
+        return this.maxX;
     }
     
     public double getMaxY() {
-        if (this.v1.getY() > this.v2.getY())
-            return this.v1.getY();
-        else
-            return this.v2.getY();
+        return this.maxY;
     }
     
     public double getMaxZ() {
-        if (this.v1.getZ() > this.v2.getZ())
-            return this.v1.getZ();
-        else
-            return this.v2.getZ();
+        return this.maxZ;
     }
     
     public double getMinX() {
-        if (this.v1.getX() > this.v2.getX())
-            return this.v2.getX();
-        else
-            return this.v1.getX();
+        return this.minX;
     }
     
     public double getMinY() {
-        if (this.v1.getY() > this.v2.getY())
-            return this.v2.getY();
-        else
-            return this.v1.getY();
+        return this.minY;
     }
     
     public double getMinZ() {
-        if (this.v1.getZ() > this.v2.getZ())
-            return this.v2.getZ();
-        else
-            return this.v1.getZ();
+        return this.minZ;
+    }
+    
+    public int getMinBlockX() {
+        return this.minBlockX;
+    }
+    
+    public int getMinBlockY() {
+        return this.minBlockY;
+    }
+    
+    public int getMinBlockZ() {
+        return this.minBlockZ;
+    }
+    
+    public int getMaxBlockX() {
+        return this.maxBlockX;
+    }
+    
+    public int getMaxBlockY() {
+        return this.maxBlockY;
+    }
+    
+    public int getMaxBlockZ() {
+        return this.maxBlockZ;
     }
     
     public World getWorld() {
         return this.w;
     }
     
+    /**
+     * Returns name of region's world. Available even if the world is not loaded.
+     * 
+     * @return name of world
+     */
+    public String getWorldName() {
+        return this.w_name;
+    }
+    
     /**
      * Returns random location from this region.
      * 
@@ -319,21 +425,135 @@ public class Region {
     /**
      * Returns list of blocks in this region. <b>Notice: can be slow on big regions.</b>
      * 
+     * @deprecated creates object for each block of region, use {@link #forEachBlock(BlockVisitor)} instead.
      * @return list of region's blocks
      */
+    @Deprecated
     public List<Block> getBlocks() {
-        List<Block> blocks = new ArrayList<Block>(500);
-        int maxX = (int) this.getMaxX();
-        int maxY = (int) this.getMaxY();
-        int maxZ = (int) this.getMaxZ();
-        for (int x = (int) this.getMinX(); x <= maxX; x++) {
-            for (int y = (int) this.getMinY(); y <= maxY; y++) {
-                for (int z = (int) this.getMinZ(); z <= maxZ; z++) {
-                    blocks.add(this.w.getBlockAt(x, y, z));
+        final List<Block> blocks = new ArrayList<Block>(500);
+        this.forEachBlock(new BlockVisitor() {
+            @Override
+            public boolean visit(final Block block) {
+                blocks.add(block);
+                return true;
+            }
+        });
+        return blocks;
+    }
+    
+    /**
+     * Returns lowest y coordinate of blocks visited by block visitors (min y clamped to world).
+     * 
+     * @return lowest visited y
+     */
+    public int getFromY() {
+        return Math.max(0, this.minBlockY);
+    }
+    
+    /**
+     * Returns highest y coordinate of blocks visited by block visitors (max y clamped to world height).
+     * 
+     * @return highest visited y
+     */
+    public int getToY() {
+        return Math.min(this.w.getMaxHeight() - 1, this.maxBlockY);
+    }
+    
+    /**
+     * Visits all blocks in this region chunk by chunk. Chunks, that are not loaded, are loaded.
+     * 
+     * @param visitor
+     *            visitor
+     * @return <b>true</b> if all blocks were visited, <b>false</b> if visitor stopped visiting
+     */
+    public boolean forEachBlock(final BlockVisitor visitor) {
+        return this.forEachBlock(visitor, false);
+    }
+    
+    /**
+     * Visits all blocks in this region chunk by chunk. Must be called from main thread.
+     * 
+     * @param visitor
+     *            visitor
+     * @param skipUnloaded
+     *            whether chunks, that are not loaded, should be skipped (instead of loaded)
+     * @return <b>true</b> if all blocks were visited, <b>false</b> if visitor stopped visiting
+     */
+    public boolean forEachBlock(final BlockVisitor visitor, final boolean skipUnloaded) {
+        int fromY = this.getFromY();
+        int toY = this.getToY();
+        for (int cx = this.minBlockX >> 4; cx <= this.maxBlockX >> 4; cx++) {
+            for (int cz = this.minBlockZ >> 4; cz <= this.maxBlockZ >> 4; cz++) {
+                if (skipUnloaded && !this.w.isChunkLoaded(cx, cz))
+                    continue;
+                
+                Chunk chunk = this.w.getChunkAt(cx, cz);
+                int maxX = Math.min(this.maxBlockX, (cx << 4) + 15);
+                int maxZ = Math.min(this.maxBlockZ, (cz << 4) + 15);
+                for (int x = Math.max(this.minBlockX, cx << 4); x <= maxX; x++) {
+                    for (int z = Math.max(this.minBlockZ, cz << 4); z <= maxZ; z++) {
+                        for (int y = fromY; y <= toY; y++) {
+                            if (!visitor.visit(chunk.getBlock(x & 15, y, z & 15)))
+                                return false;
+                        }
+                    }
                 }
             }
         }
-        return blocks;
+        return true;
+    }
+    
+    /**
+     * Takes snapshots of chunks of this region, that can be later visited by
+     * {@link #forEachBlock(List, SnapshotVisitor)} from other thread. Must be called from main thread. All snapshots are
+     * held in memory at once, use {@link #forEachBlockAsync(SnapshotVisitor, int, Executor, VisitCallback)} for big
+     * regions.
+     * 
+     * @param skipUnloaded
+     *            whether chunks, that are not loaded, should be skipped (instead of loaded)
+     * @return list of chunk snapshots
+     */
+    public List<ChunkSnapshot> getChunkSnapshots(final boolean skipUnloaded) {
+        List<ChunkSnapshot> snapshots = new ArrayList<ChunkSnapshot>();
+        for (int cx = this.minBlockX >> 4; cx <= this.maxBlockX >> 4; cx++) {
+            for (int cz = this.minBlockZ >> 4; cz <= this.maxBlockZ >> 4; cz++) {
+                if (skipUnloaded && !this.w.isChunkLoaded(cx, cz))
+                    continue;
+                snapshots.add(this.w.getChunkAt(cx, cz).getChunkSnapshot());
+            }
+        }
+        return snapshots;
+    }
+    
+    /**
+     * Visits all blocks of this region, that are in specified snapshots, chunk by chunk. Can be called from any
+     * thread.
+     * 
+     * @param snapshots
+     *            snapshots taken by {@link #getChunkSnapshots(boolean)}
+     * @param visitor
+     *            visitor
+     * @return <b>true</b> if all blocks were visited, <b>false</b> if visitor stopped visiting
+     */
+    public boolean forEachBlock(final List<ChunkSnapshot> snapshots,
+            final SnapshotVisitor visitor) {
+        int fromY = this.getFromY();
+        int toY = this.getToY();
+        for (ChunkSnapshot snapshot : snapshots) {
+            int cx = snapshot.getX();
+            int cz = snapshot.getZ();
+            int maxX = Math.min(this.maxBlockX, (cx << 4) + 15);
+            int maxZ = Math.min(this.maxBlockZ, (cz << 4) + 15);
+            for (int x = Math.max(this.minBlockX, cx << 4); x <= maxX; x++) {
+                for (int z = Math.max(this.minBlockZ, cz << 4); z <= maxZ; z++) {
+                    for (int y = fromY; y <= toY; y++) {
+                        if (!visitor.visit(snapshot, x, y, z))
+                            return false;
+                    }
+                }
+            }
+        }
+        return true;
     }
     
     /**
@@ -365,4 +585,155 @@ public class Region {
     public double getLength() {
         return this.getMaxZ() - this.getMinZ();
     }
+    
+    /**
+     * Visits all blocks of this region from chunk snapshots on specified executor. Snapshots are taken on main thread
+     * in batches of specified count of chunks per tick and next batch is taken only after previous one was visited, so
+     * memory used is bounded by batch size, not by size of region. Chunks are visited in same order as by
+     * {@link #forEachBlock(BlockVisitor)}. Must be called from main thread.
+     * 
+     * @param visitor
+     *            visitor, called from executor thread
+     * @param chunksPerTick
+     *            count of chunks copied in one tick
+     * @param executor
+     *            executor, that visits snapshots
+     * @param callback
+     *            called from main thread after all blocks were visited, visitor stopped visiting or visiting failed,
+     *            may be null
+     */
+    public void forEachBlockAsync(final SnapshotVisitor visitor, final int chunksPerTick,
+            final Executor executor, final VisitCallback callback) {
+        new AsyncVisit(this, visitor, Math.max(1, chunksPerTick), executor, callback).start();
+    }
+    
+    /**
+     * How {@link Region#forEachBlockAsync(SnapshotVisitor, int, Executor, VisitCallback)} ended.
+     */
+    public enum VisitResult {
+        /**
+         * All blocks were visited.
+         */
+        COMPLETED,
+        /**
+         * Visitor stopped visiting.
+         */
+        STOPPED,
+        /**
+         * Visitor or copying of chunks threw exception, or executor rejected batch.
+         */
+        FAILED;
+    }
+    
+    /**
+     * Callback of {@link Region#forEachBlockAsync(SnapshotVisitor, int, Executor, VisitCallback)}.
+     */
+    public interface VisitCallback {
+        /**
+         * Called from main thread, when visiting ended.
+         * 
+         * @param result
+         *            how visiting ended
+         * @param cause
+         *            exception, that failed visiting, null if result is not {@link VisitResult#FAILED}
+         */
+        void onFinished(VisitResult result, Throwable cause);
+    }
+    
+    /**
+     * State of one {@link Region#forEachBlockAsync(SnapshotVisitor, int, Executor, VisitCallback)} call.
+     */
+    private static final class AsyncVisit implements Runnable {
+        private final Region          region;
+        private final SnapshotVisitor visitor;
+        private final int             chunksPerTick;
+        private final Executor        executor;
+        private final VisitCallback   callback;
+        private final BukkitTimer     timer;
+        private final int             width;
+        private final int             count;
+        // Index of next chunk to copy.
+        private int                   next   = 0;
+        // Whether is batch visited by executor right now.
+        private final AtomicBoolean   busy   = new AtomicBoolean();
+        // Result, when visiting ended early.
+        private volatile VisitResult  result = null;
+        private volatile Throwable    cause  = null;
+        
+        AsyncVisit(final Region region, final SnapshotVisitor visitor, final int chunksPerTick,
+                final Executor executor, final VisitCallback callback) {
+            this.region = region;
+            this.visitor = visitor;
+            this.chunksPerTick = chunksPerTick;
+            this.executor = executor;
+            this.callback = callback;
+            this.timer = new BukkitTimer(1, this);
+            this.width = (region.maxBlockZ >> 4) - (region.minBlockZ >> 4) + 1;
+            this.count = ((region.maxBlockX >> 4) - (region.minBlockX >> 4) + 1) * this.width;
+        }
+        
+        void start() {
+            this.timer.start();
+        }
+        
+        private void finish(final VisitResult result) {
+            this.timer.stop();
+            if (this.callback != null)
+                this.callback.onFinished(result, this.cause);
+        }
+        
+        private void fail(final Throwable cause) {
+            this.cause = cause;
+            this.result = VisitResult.FAILED;
+        }
+        
+        @Override
+        public void run() {
+            if (this.busy.get())
+                return;
+            if (this.result != null) {
+                this.finish(this.result);
+                return;
+            }
+            if (this.next == this.count) {
+                this.finish(VisitResult.COMPLETED);
+                return;
+            }
+            
+            final List<ChunkSnapshot> batch = new ArrayList<ChunkSnapshot>(this.chunksPerTick);
+            try {
+                while (batch.size() < this.chunksPerTick && this.next < this.count) {
+                    int cx = (this.region.minBlockX >> 4) + this.next / this.width;
+                    int cz = (this.region.minBlockZ >> 4) + this.next % this.width;
+                    batch.add(this.region.w.getChunkAt(cx, cz).getChunkSnapshot());
+                    this.next++;
+                }
+            } catch (RuntimeException e) {
+                this.fail(e);
+                this.finish(VisitResult.FAILED);
+                return;
+            }
+            
+            this.busy.set(true);
+            try {
+                this.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!AsyncVisit.this.region.forEachBlock(batch, AsyncVisit.this.visitor))
+                                AsyncVisit.this.result = VisitResult.STOPPED;
+                        } catch (RuntimeException e) {
+                            AsyncVisit.this.fail(e);
+                        } finally {
+                            AsyncVisit.this.busy.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.busy.set(false);
+                this.fail(e);
+                this.finish(VisitResult.FAILED);
+            }
+        }
+    }
 }
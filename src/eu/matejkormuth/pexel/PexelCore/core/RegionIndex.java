@@ -0,0 +1,268 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+/**
+ * Per-world spatial index of regions. Each region is stored in every chunk column it covers, so point query only tests
+ * regions that overlap queried chunk instead of all registered regions.
+ * <br/>
+ * If more regions contain the same point, the most specific one (smallest volume, then lowest key) is returned.
+ * <br/>
+ * Writes rebuild the grid of affected world and publish it, so reads do not need any locking.
+ * 
+ * @author Mato Kormuth
+ * 
+ * @param <T>
+ *            type of indexed values
+ */
+public class RegionIndex<T> {
+    /**
+     * Maximum number of chunk columns, that region can occupy in grid. Bigger regions are checked separately.
+     */
+    private static final int                MAX_CELLS = 4096;
+    /**
+     * All indexed entries by key.
+     */
+    private final Map<String, Entry>        entries   = new HashMap<String, Entry>();
+    /**
+     * Published grids by world name.
+     */
+    private volatile Map<String, WorldGrid> grids     = Collections.emptyMap();
+    
+    /**
+     * Adds or replaces region with specified key in the index.
+     * 
+     * @param key
+     *            unique key (name) of region
+     * @param region
+     *            region to index
+     * @param value
+     *            value returned by queries
+     */
+    public synchronized void put(final String key, final Region region, final T value) {
+        Entry old = this.entries.remove(key);
+        if (region != null && region.getWorldName() != null) {
+            this.entries.put(key, new Entry(key, region, value));
+            this.rebuild(region.getWorldName());
+        }
+        if (old != null && !old.region.getWorldName().equals(
+                region == null ? null : region.getWorldName()))
+            this.rebuild(old.region.getWorldName());
+    }
+    
+    /**
+     * Removes region with specified key from the index.
+     * 
+     * @param key
+     *            key of region
+     */
+    public synchronized void remove(final String key) {
+        Entry old = this.entries.remove(key);
+        if (old != null)
+            this.rebuild(old.region.getWorldName());
+    }
+    
+    /**
+     * Returns the most specific value which region contains specified location or null.
+     * 
+     * @param location
+     *            location to search
+     * @return value or null
+     */
+    public T find(final Location location) {
+        return this.find(location.getWorld(), location.getX(), location.getY(),
+                location.getZ());
+    }
+    
+    /**
+     * Returns the most specific value which region contains specified point or null. Does not allocate any objects.
+     * 
+     * @param world
+     *            world of point
+     * @param x
+     *            x coordinate
+     * @param y
+     *            y coordinate
+     * @param z
+     *            z coordinate
+     * @return value or null
+     */
+    @SuppressWarnings("unchecked")
+    public T find(final World world, final double x, final double y, final double z) {
+        WorldGrid grid = this.grids.get(world.getName());
+        if (grid == null)
+            return null;
+        
+        Entry result = null;
+        Entry[] cell = grid.get(RegionIndex.chunkKey(((int) Math.floor(x)) >> 4,
+                ((int) Math.floor(z)) >> 4));
+        if (cell != null)
+            for (Entry entry : cell)
+                if (entry.region.contains(world, x, y, z)) {
+                    result = entry;
+                    break;
+                }
+        
+        for (Entry entry : grid.oversized)
+            if (entry.region.contains(world, x, y, z)) {
+                if (result == null || entry.compareTo(result) < 0)
+                    result = entry;
+                break;
+            }
+        
+        return result == null ? null : (T) result.value;
+    }
+    
+    /**
+     * Returns count of indexed regions.
+     * 
+     * @return count of regions
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+    
+    /**
+     * Rebuilds grid of specified world and publishes it.
+     */
+    private void rebuild(final String worldName) {
+        List<Entry> worldEntries = new ArrayList<Entry>();
+        for (Entry entry : this.entries.values())
+            if (entry.region.getWorldName().equals(worldName))
+                worldEntries.add(entry);
+        Collections.sort(worldEntries);
+        
+        Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+        List<Entry> oversized = new ArrayList<Entry>();
+        for (Entry entry : worldEntries) {
+            int minCX = ((int) Math.floor(entry.region.getMinX())) >> 4;
+            int maxCX = ((int) Math.floor(entry.region.getMaxX())) >> 4;
+            int minCZ = ((int) Math.floor(entry.region.getMinZ())) >> 4;
+            int maxCZ = ((int) Math.floor(entry.region.getMaxZ())) >> 4;
+            
+            if ((long) (maxCX - minCX + 1) * (maxCZ - minCZ + 1) > RegionIndex.MAX_CELLS) {
+                oversized.add(entry);
+                continue;
+            }
+            
+            for (int cx = minCX; cx <= maxCX; cx++)
+                for (int cz = minCZ; cz <= maxCZ; cz++) {
+                    Long key = RegionIndex.chunkKey(cx, cz);
+                    List<Entry> cell = cells.get(key);
+                    if (cell == null) {
+                        cell = new ArrayList<Entry>(2);
+                        cells.put(key, cell);
+                    }
+                    // Entries are sorted, so cells are sorted too.
+                    cell.add(entry);
+                }
+        }
+        
+        Map<String, WorldGrid> newGrids = new HashMap<String, WorldGrid>(this.grids);
+        if (worldEntries.isEmpty())
+            newGrids.remove(worldName);
+        else
+            newGrids.put(worldName, new WorldGrid(cells, oversized));
+        this.grids = newGrids;
+    }
+    
+    private static long chunkKey(final int cx, final int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Indexed region. Entries are ordered from the most specific one.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        private final String key;
+        private final Region region;
+        private final Object value;
+        private final double volume;
+        
+        private Entry(final String key, final Region region, final Object value) {
+            this.key = key;
+            this.region = region;
+            this.value = value;
+            this.volume = (region.getWidth() + 1) * (region.getHeight() + 1)
+                    * (region.getLength() + 1);
+        }
+        
+        @Override
+        public int compareTo(final Entry o) {
+            int result = Double.compare(this.volume, o.volume);
+            if (result == 0)
+                return this.key.compareTo(o.key);
+            return result;
+        }
+    }
+    
+    /**
+     * Immutable chunk grid of one world. Uses open addressing over primitive keys, so lookups do not allocate.
+     */
+    private static final class WorldGrid {
+        private final long[]    keys;
+        private final Entry[][] cells;
+        private final int       mask;
+        private final Entry[]   oversized;
+        
+        private WorldGrid(final Map<Long, List<Entry>> source, final List<Entry> oversized) {
+            int capacity = 16;
+            while (capacity < source.size() * 2)
+                capacity <<= 1;
+            
+            this.keys = new long[capacity];
+            this.cells = new Entry[capacity][];
+            this.mask = capacity - 1;
+            this.oversized = oversized.toArray(new Entry[oversized.size()]);
+            
+            for (Map.Entry<Long, List<Entry>> cell : source.entrySet()) {
+                int slot = WorldGrid.hash(cell.getKey()) & this.mask;
+                while (this.cells[slot] != null)
+                    slot = (slot + 1) & this.mask;
+                this.keys[slot] = cell.getKey();
+                this.cells[slot] = cell.getValue().toArray(
+                        new Entry[cell.getValue().size()]);
+            }
+        }
+        
+        private Entry[] get(final long key) {
+            int slot = WorldGrid.hash(key) & this.mask;
+            while (this.cells[slot] != null) {
+                if (this.keys[slot] == key)
+                    return this.cells[slot];
+                slot = (slot + 1) & this.mask;
+            }
+            return null;
+        }
+        
+        private static int hash(final long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
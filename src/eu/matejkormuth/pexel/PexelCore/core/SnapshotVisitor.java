@@ -0,0 +1,46 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import org.bukkit.ChunkSnapshot;
+
+/**
+ * Visitor of blocks in {@link Region}, that reads blocks from {@link ChunkSnapshot}s, so it can be used from other than
+ * main thread. Used by {@link Region#forEachBlock(java.util.List, SnapshotVisitor)}.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public interface SnapshotVisitor {
+    /**
+     * Called for each visited block. Block data can be read from snapshot with coordinates
+     * <code>(x &amp; 15, y, z &amp; 15)</code>.
+     * 
+     * @param snapshot
+     *            snapshot of chunk, that contains the block
+     * @param x
+     *            world x coordinate of block
+     * @param y
+     *            world y coordinate of block
+     * @param z
+     *            world z coordinate of block
+     * @return <b>true</b> to continue, <b>false</b> to stop visiting
+     */
+    public boolean visit(ChunkSnapshot snapshot, int x, int y, int z);
+}
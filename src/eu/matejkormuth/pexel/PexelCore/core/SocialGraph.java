@@ -0,0 +1,307 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Bukkit;
+
+import eu.matejkormuth.pexel.PexelCore.Pexel;
+
+/**
+ * Graph of friends and foes of players. Forward edges are stored in {@link PlayerProfile}s, this class keeps reverse
+ * index (who has the player as friend or foe) and friends of online players, that are online. All queries are hash
+ * lookups, no profiles are scanned.
+ * <p>
+ * Reverse index is built from profile store on other thread, until it is loaded, {@link #getFriendOf(UUID)} and
+ * {@link #getFoeOf(UUID)} may be incomplete. All methods should be called from main thread.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class SocialGraph {
+    /**
+     * Players, that have the key player as friend.
+     */
+    private final Map<UUID, Set<UUID>> friendOf      = new HashMap<UUID, Set<UUID>>();
+    /**
+     * Players, that have the key player as foe.
+     */
+    private final Map<UUID, Set<UUID>> foeOf         = new HashMap<UUID, Set<UUID>>();
+    /**
+     * Online friends of each online player.
+     */
+    private final Map<UUID, Set<UUID>> onlineFriends = new HashMap<UUID, Set<UUID>>();
+    /**
+     * Players, that changed their friends or foes while reverse index was loading.
+     */
+    private final Set<UUID>            changed       = new HashSet<UUID>();
+    private boolean                    loaded        = false;
+    
+    /**
+     * Builds reverse index from all profiles in specified profile store on async worker and merges it to this graph on
+     * main thread. Should be called once, after the store is opened.
+     * 
+     * @param store
+     *            profile store
+     */
+    public void load(final ProfileStore store) {
+        Pexel.getAsyncWorker().addTask(new Runnable() {
+            @Override
+            public void run() {
+                final Map<UUID, Set<UUID>> friendOf = new HashMap<UUID, Set<UUID>>();
+                final Map<UUID, Set<UUID>> foeOf = new HashMap<UUID, Set<UUID>>();
+                final AtomicInteger failures = new AtomicInteger();
+                for (UUID uuid : store.keys()) {
+                    try {
+                        PlayerProfile profile = store.read(uuid);
+                        if (profile != null)
+                            SocialGraph.linkAll(friendOf, foeOf, profile);
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+                Bukkit.getScheduler().runTask(Pexel.getCore(), new Runnable() {
+                    @Override
+                    public void run() {
+                        SocialGraph.this.merge(store, friendOf, foeOf, failures.get());
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Merges loaded reverse index to this graph. Edges of players, that changed while loading, are taken from their
+     * current profiles instead.
+     */
+    private void merge(final ProfileStore store, final Map<UUID, Set<UUID>> friendOf,
+            final Map<UUID, Set<UUID>> foeOf, final int failures) {
+        SocialGraph.mergeIndex(this.friendOf, friendOf, this.changed);
+        SocialGraph.mergeIndex(this.foeOf, foeOf, this.changed);
+        for (UUID uuid : this.changed) {
+            PlayerProfile profile = StorageEngine.getProfileCache().get(uuid);
+            try {
+                if (profile == null)
+                    profile = store.read(uuid);
+                if (profile != null)
+                    SocialGraph.linkAll(this.friendOf, this.foeOf, profile);
+            } catch (IOException e) {
+                Log.warn("Can't read profile " + uuid.toString() + " to social graph: "
+                        + e.toString());
+            }
+        }
+        this.changed.clear();
+        this.loaded = true;
+        
+        // Players, that joined while loading, were not added to online friends of their fans.
+        for (UUID uuid : this.onlineFriends.keySet())
+            this.notifyFans(uuid);
+        
+        int edges = 0;
+        for (Set<UUID> fans : this.friendOf.values())
+            edges += fans.size();
+        for (Set<UUID> haters : this.foeOf.values())
+            edges += haters.size();
+        Log.info("Social graph loaded with " + edges + " edges.");
+        if (failures > 0)
+            Log.warn(failures + " profiles could not be read to social graph!");
+    }
+    
+    private static void mergeIndex(final Map<UUID, Set<UUID>> index,
+            final Map<UUID, Set<UUID>> loaded, final Set<UUID> skipped) {
+        for (Map.Entry<UUID, Set<UUID>> entry : loaded.entrySet())
+            for (UUID uuid : entry.getValue())
+                if (!skipped.contains(uuid))
+                    SocialGraph.link(index, entry.getKey(), uuid);
+    }
+    
+    private static void linkAll(final Map<UUID, Set<UUID>> friendOf,
+            final Map<UUID, Set<UUID>> foeOf, final PlayerProfile profile) {
+        for (UUID friend : profile.friends)
+            SocialGraph.link(friendOf, friend, profile.getUniqueId());
+        for (UUID foe : profile.foes)
+            SocialGraph.link(foeOf, foe, profile.getUniqueId());
+    }
+    
+    private static void link(final Map<UUID, Set<UUID>> index, final UUID key,
+            final UUID value) {
+        Set<UUID> set = index.get(key);
+        if (set == null) {
+            set = new HashSet<UUID>();
+            index.put(key, set);
+        }
+        set.add(value);
+    }
+    
+    private static void unlink(final Map<UUID, Set<UUID>> index, final UUID key,
+            final UUID value) {
+        Set<UUID> set = index.get(key);
+        if (set != null && set.remove(value) && set.isEmpty())
+            index.remove(key);
+    }
+    
+    private static Set<UUID> view(final Set<UUID> set) {
+        if (set == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(set);
+    }
+    
+    private void changed(final UUID player) {
+        if (!this.loaded)
+            this.changed.add(player);
+    }
+    
+    /**
+     * Called by {@link PlayerProfile} when player adds friend.
+     */
+    void addFriend(final UUID player, final UUID friend) {
+        this.changed(player);
+        SocialGraph.link(this.friendOf, friend, player);
+        Set<UUID> online = this.onlineFriends.get(player);
+        if (online != null && this.onlineFriends.containsKey(friend))
+            online.add(friend);
+    }
+    
+    /**
+     * Called by {@link PlayerProfile} when player removes friend.
+     */
+    void removeFriend(final UUID player, final UUID friend) {
+        this.changed(player);
+        SocialGraph.unlink(this.friendOf, friend, player);
+        Set<UUID> online = this.onlineFriends.get(player);
+        if (online != null)
+            online.remove(friend);
+    }
+    
+    /**
+     * Called by {@link PlayerProfile} when player adds foe.
+     */
+    void addFoe(final UUID player, final UUID foe) {
+        this.changed(player);
+        SocialGraph.link(this.foeOf, foe, player);
+    }
+    
+    /**
+     * Called by {@link PlayerProfile} when player removes foe.
+     */
+    void removeFoe(final UUID player, final UUID foe) {
+        this.changed(player);
+        SocialGraph.unlink(this.foeOf, foe, player);
+    }
+    
+    /**
+     * Marks player as online and updates online friends of him and of players, that have him as friend.
+     * 
+     * @param profile
+     *            profile of joined player
+     */
+    public void playerJoined(final PlayerProfile profile) {
+        UUID uuid = profile.getUniqueId();
+        Set<UUID> online = new HashSet<UUID>();
+        for (UUID friend : profile.friends)
+            if (this.onlineFriends.containsKey(friend))
+                online.add(friend);
+        this.onlineFriends.put(uuid, online);
+        this.notifyFans(uuid);
+    }
+    
+    /**
+     * Adds specified online player to online friends of players, that have him as friend.
+     */
+    private void notifyFans(final UUID uuid) {
+        Set<UUID> fans = this.friendOf.get(uuid);
+        if (fans != null)
+            for (UUID fan : fans) {
+                Set<UUID> fanOnline = this.onlineFriends.get(fan);
+                if (fanOnline != null)
+                    fanOnline.add(uuid);
+            }
+    }
+    
+    /**
+     * Marks player as offline and removes him from online friends of other players.
+     * 
+     * @param uuid
+     *            uuid of player, that left
+     */
+    public void playerLeft(final UUID uuid) {
+        if (this.onlineFriends.remove(uuid) == null)
+            return;
+        
+        Set<UUID> fans = this.friendOf.get(uuid);
+        if (fans != null)
+            for (UUID fan : fans) {
+                Set<UUID> fanOnline = this.onlineFriends.get(fan);
+                if (fanOnline != null)
+                    fanOnline.remove(uuid);
+            }
+    }
+    
+    /**
+     * Returns whether is specified player online.
+     * 
+     * @param uuid
+     *            uuid of player
+     * @return true if the player is online
+     */
+    public boolean isOnline(final UUID uuid) {
+        return this.onlineFriends.containsKey(uuid);
+    }
+    
+    /**
+     * Returns unmodifiable set of online friends of specified online player.
+     * 
+     * @param uuid
+     *            uuid of online player
+     * @return online friends
+     */
+    public Set<UUID> getOnlineFriends(final UUID uuid) {
+        return SocialGraph.view(this.onlineFriends.get(uuid));
+    }
+    
+    /**
+     * Returns unmodifiable set of players, that have specified player as friend.
+     * 
+     * @param uuid
+     *            uuid of player
+     * @return players, that have the player as friend
+     */
+    public Set<UUID> getFriendOf(final UUID uuid) {
+        return SocialGraph.view(this.friendOf.get(uuid));
+    }
+    
+    /**
+     * Returns unmodifiable set of players, that have specified player as foe.
+     * 
+     * @param uuid
+     *            uuid of player
+     * @return players, that have the player as foe
+     */
+    public Set<UUID> getFoeOf(final UUID uuid) {
+        return SocialGraph.view(this.foeOf.get(uuid));
+    }
+}
@@ -21,27 +21,43 @@ package eu.matejkormuth.pexel.PexelCore.core;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
 
 import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Event;
 import org.bukkit.event.player.PlayerQuitEvent;
 
+import eu.matejkormuth.pexel.PexelCore.Pexel;
 import eu.matejkormuth.pexel.PexelCore.PexelCore;
 import eu.matejkormuth.pexel.PexelCore.areas.AreaFlag;
 import eu.matejkormuth.pexel.PexelCore.areas.Lobby;
 import eu.matejkormuth.pexel.PexelCore.areas.ProtectedArea;
 import eu.matejkormuth.pexel.PexelCore.arenas.AbstractArena;
-import eu.matejkormuth.pexel.PexelCore.arenas.ArenaOption;
+import eu.matejkormuth.pexel.PexelCore.arenas.ArenaOptions;
 import eu.matejkormuth.pexel.PexelCore.arenas.DisconnectReason;
+import eu.matejkormuth.pexel.PexelCore.arenas.MapCatalog;
 import eu.matejkormuth.pexel.PexelCore.arenas.MapData;
 import eu.matejkormuth.pexel.PexelCore.minigame.Minigame;
+import eu.matejkormuth.pexel.PexelCore.util.AtomicFiles;
+import eu.matejkormuth.pexel.PexelCore.util.BukkitTimer;
 
 /**
  * All data of plugin is stored in this class.
@@ -52,15 +68,34 @@ import eu.matejkormuth.pexel.PexelCore.minigame.Minigame;
 @SuppressWarnings("deprecation")
 // SuppressWarning - Because of ArenaOption.
 public class StorageEngine {
-    private static final Map<UUID, PlayerProfile>   profiles    = new HashMap<UUID, PlayerProfile>();
+    private static final ProfileCache               profiles    = new ProfileCache(1000,
+                                                                        10 * 60 * 1000);
+    private static final SocialGraph                socialGraph = new SocialGraph();
+    private static final MapCatalog                 mapCatalog  = new MapCatalog();
+    private static ExecutorService                  configWriter;
+    private static BukkitTimer                      arenaSaver;
     private static final Map<String, Minigame>      minigames   = new HashMap<String, Minigame>();
-    private static final Map<String, ProtectedArea> areas       = new HashMap<String, ProtectedArea>();
-    private static final Map<String, AbstractArena> arenas      = new HashMap<String, AbstractArena>();
     private static final Map<String, Class<?>>      aliases     = new HashMap<String, Class<?>>();
-    private static final Map<String, Lobby>         lobbies     = new HashMap<String, Lobby>();
-    private static final Map<String, TeleportGate>  gates       = new HashMap<String, TeleportGate>();
+    private static volatile AreaRegistry            registry    = AreaRegistry.EMPTY;
+    private static final RegionIndex<ProtectedArea> areaIndex   = new RegionIndex<ProtectedArea>();
+    private static final RegionIndex<TeleportGate>  gateIndex   = new RegionIndex<TeleportGate>();
     private static boolean                          initialized = false;
     
+    /**
+     * Profiles, that were loaded before player joins.
+     */
+    private static final ConcurrentMap<UUID, Prefetch> prefetched      =
+            new ConcurrentHashMap<UUID, Prefetch>();
+    /**
+     * Time in milliseconds, after which prefetched profile is not used anymore (player disconnected before join).
+     */
+    private static final long                          PREFETCH_EXPIRY = 60 * 1000;
+    /**
+     * Saved triggeredByMove flags of gates by their names. Gates are registered by code, so the flags are applied, when
+     * gate with the same name is added.
+     */
+    private static final Map<String, Boolean>          gateFlags       = new HashMap<String, Boolean>();
+    
     /**
      * Initializes static obeject of storage engine.
      * 
@@ -68,8 +103,27 @@ public class StorageEngine {
      *            pexel core
      */
     public static void initialize(final PexelCore core) {
-        if (!StorageEngine.initialized)
+        if (!StorageEngine.initialized) {
             StorageEngine.initialized = true;
+            // Evict profiles of offline players every 30 seconds.
+            StorageEngine.profiles.start(20 * 30);
+            StorageEngine.configWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(r);
+                    thread.setName("ArenaConfigWriter");
+                    return thread;
+                }
+            });
+            // Save changed arena configs every 5 minutes.
+            StorageEngine.arenaSaver = new BukkitTimer(20 * 60 * 5, new Runnable() {
+                @Override
+                public void run() {
+                    StorageEngine.saveArenas();
+                }
+            });
+            StorageEngine.arenaSaver.start();
+        }
     }
     
     /**
@@ -79,7 +133,7 @@ public class StorageEngine {
      *            player
      * @return lsit of friends
      */
-    public static List<UUID> getFriends(final Player player) {
+    public static Set<UUID> getFriends(final Player player) {
         return StorageEngine.profiles.get(player.getUniqueId()).getFriends();
     }
     
@@ -89,17 +143,65 @@ public class StorageEngine {
      * @param player
      * @return
      */
-    public static List<UUID> getFoes(final Player player) {
+    public static Set<UUID> getFoes(final Player player) {
         return StorageEngine.profiles.get(player.getUniqueId()).getFoes();
     }
     
     /**
-     * Returns map of areas.
+     * Returns UUIDs of player's friends, that are online.
+     * 
+     * @param player
+     *            player
+     * @return online friends
+     */
+    public static Set<UUID> getOnlineFriends(final Player player) {
+        return StorageEngine.socialGraph.getOnlineFriends(player.getUniqueId());
+    }
+    
+    /**
+     * Returns graph of friends and foes.
+     * 
+     * @return social graph
+     */
+    public static SocialGraph getSocialGraph() {
+        return StorageEngine.socialGraph;
+    }
+    
+    /**
+     * Returns current snapshot of registered areas, arenas, lobbies and gates. Snapshot never changes, so it can be
+     * safely used from any thread.
+     * 
+     * @return current registry snapshot
+     */
+    public static AreaRegistry getRegistry() {
+        return StorageEngine.registry;
+    }
+    
+    /**
+     * Returns unmodifiable map of areas.
      * 
      * @return
      */
     public static Map<String, ProtectedArea> getAreas() {
-        return StorageEngine.areas;
+        return StorageEngine.registry.getAreas();
+    }
+    
+    /**
+     * Returns spatial index of all registered areas.
+     * 
+     * @return area index
+     */
+    public static RegionIndex<ProtectedArea> getAreaIndex() {
+        return StorageEngine.areaIndex;
+    }
+    
+    /**
+     * Returns cache of profiles loaded in memory.
+     * 
+     * @return profile cache
+     */
+    public static ProfileCache getProfileCache() {
+        return StorageEngine.profiles;
     }
     
     /**
@@ -137,9 +239,9 @@ public class StorageEngine {
      * 
      * @param arena
      */
-    public static void addArena(final AbstractArena arena) {
-        StorageEngine.arenas.put(arena.getName(), arena);
-        StorageEngine.areas.put(arena.getName(), arena);
+    public static synchronized void addArena(final AbstractArena arena) {
+        StorageEngine.registry = StorageEngine.registry.withArena(arena);
+        StorageEngine.areaIndex.put(arena.getName(), arena.getRegion(), arena);
     }
     
     /**
@@ -148,7 +250,7 @@ public class StorageEngine {
      * @return count of minigame arenas.
      */
     public static int getMinigameArenasCount() {
-        return StorageEngine.arenas.size();
+        return StorageEngine.registry.getArenas().size();
     }
     
     /**
@@ -165,23 +267,39 @@ public class StorageEngine {
     }
     
     public static Map<String, AbstractArena> getArenas() {
-        return StorageEngine.arenas;
+        return StorageEngine.registry.getArenas();
     }
     
     public static AbstractArena getArena(final String arenaName) {
-        return StorageEngine.arenas.get(arenaName);
+        return StorageEngine.registry.getArenas().get(arenaName);
     }
     
-    public static void addGate(final String name, final TeleportGate gate) {
-        StorageEngine.gates.put(name, gate);
+    public static synchronized void addGate(final String name, final TeleportGate gate) {
+        Boolean triggeredByMove = StorageEngine.gateFlags.remove(name);
+        if (triggeredByMove != null)
+            gate.setTriggeredByMove(triggeredByMove);
+        StorageEngine.registry = StorageEngine.registry.withGate(name, gate);
+        StorageEngine.gateIndex.put(name, gate.getRegion(), gate);
     }
     
     public static TeleportGate getGate(final String name) {
-        return StorageEngine.gates.get(name);
+        return StorageEngine.registry.getGates().get(name);
     }
     
-    public static void removeGate(final String name) {
-        StorageEngine.gates.remove(name);
+    public static synchronized void removeGate(final String name) {
+        StorageEngine.registry = StorageEngine.registry.withoutGate(name);
+        StorageEngine.gateIndex.remove(name);
+    }
+    
+    /**
+     * Returns gate at specified location or null. If more gates overlap, the most specific (smallest) one is returned.
+     * 
+     * @param location
+     *            location
+     * @return gate at location
+     */
+    public static TeleportGate findGate(final Location location) {
+        return StorageEngine.gateIndex.find(location);
     }
     
     @SuppressWarnings("rawtypes")
@@ -198,40 +316,126 @@ public class StorageEngine {
         return StorageEngine.aliases;
     }
     
-    public static void addLobby(final Lobby lobby) {
-        StorageEngine.lobbies.put(lobby.getName(), lobby);
-        StorageEngine.areas.put(lobby.getName(), lobby);
+    public static synchronized void addLobby(final Lobby lobby) {
+        StorageEngine.registry = StorageEngine.registry.withLobby(lobby);
+        StorageEngine.areaIndex.put(lobby.getName(), lobby.getRegion(), lobby);
     }
     
     public static Lobby getLobby(final String lobbyName) {
-        return StorageEngine.lobbies.get(lobbyName);
+        return StorageEngine.registry.getLobbies().get(lobbyName);
     }
     
     /**
-     * Saves player's profile to file.
+     * Schedules save of player's profile to file, if the profile was changed. Profile is written by
+     * {@link ProfileWriter} on other thread.
      * 
      * @param uniqueId
      */
     public static void saveProfile(final UUID uniqueId) {
-        Log.info("Saving profile for " + uniqueId.toString() + " to disk...");
-        StorageEngine.profiles.get(uniqueId).save(Paths.playerProfile(uniqueId));
+        PlayerProfile profile = StorageEngine.profiles.get(uniqueId);
+        if (profile.isPlaceholder()) {
+            Log.warn("Not saving placeholder profile of " + uniqueId.toString() + "!");
+            return;
+        }
+        
+        Pexel.getProfileWriter().flush(profile);
     }
     
     /**
-     * Loads player profile from disk or creates an empty one.
+     * Releases profile of player, that left. Profile stays in memory for quick rejoin and is evicted later, when its
+     * changes are written.
      * 
      * @param uniqueId
      */
-    public static void loadProfile(final UUID uniqueId) {
-        File f = new File(Paths.playerProfile(uniqueId));
-        if (f.exists()) {
-            Log.info("Load profile for " + uniqueId + "...");
-            StorageEngine.profiles.put(uniqueId,
-                    PlayerProfile.load(Paths.playerProfile(uniqueId)));
+    public static void releaseProfile(final UUID uniqueId) {
+        StorageEngine.profiles.unpin(uniqueId);
+        StorageEngine.socialGraph.playerLeft(uniqueId);
+    }
+    
+    /**
+     * Pins profile of joined player in cache and marks him online in social graph.
+     */
+    private static void pinProfile(final PlayerProfile profile) {
+        StorageEngine.profiles.pin(profile);
+        StorageEngine.socialGraph.playerJoined(profile);
+    }
+    
+    /**
+     * Returns cached profile, loads player profile from profile store or creates an empty one. Profile is not added to
+     * cache, so this method can be called from any thread.
+     * 
+     * @param uniqueId
+     * @return loaded profile
+     * @throws IOException
+     *             when profile can't be read
+     */
+    private static PlayerProfile readProfile(final UUID uniqueId) throws IOException {
+        PlayerProfile cached = StorageEngine.profiles.lookup(uniqueId);
+        if (cached != null)
+            return cached;
+        
+        PlayerProfile stored = Pexel.getProfileStore().read(uniqueId);
+        if (stored != null) {
+            return stored;
         }
         else {
             Log.info("Creating new profile for " + uniqueId.toString());
-            StorageEngine.profiles.put(uniqueId, new PlayerProfile(uniqueId));
+            PlayerProfile profile = new PlayerProfile(uniqueId);
+            profile.markDirty();
+            return profile;
+        }
+    }
+    
+    /**
+     * Loads player profile before player joins. Should be called from async pre-login event, profile is loaded in
+     * calling thread. If the profile can't be loaded, it is loaded again when player joins.
+     * 
+     * @param uniqueId
+     */
+    public static void prefetchProfile(final UUID uniqueId) {
+        long now = System.currentTimeMillis();
+        // Forget profiles of players, that never joined.
+        for (Iterator<Prefetch> it = StorageEngine.prefetched.values().iterator(); it.hasNext();)
+            if (it.next().isExpired(now))
+                it.remove();
+        
+        try {
+            StorageEngine.prefetched.put(uniqueId,
+                    new Prefetch(StorageEngine.readProfile(uniqueId), now));
+        } catch (IOException e) {
+            StorageEngine.prefetched.remove(uniqueId);
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Discards prefetched profile of player, that was not allowed to join or left.
+     * 
+     * @param uniqueId
+     */
+    public static void discardPrefetchedProfile(final UUID uniqueId) {
+        StorageEngine.prefetched.remove(uniqueId);
+    }
+    
+    /**
+     * Makes prefetched profile of joined player available. If the profile was not prefetched (for example after
+     * reload), prefetch failed or expired, it is loaded from disk. Placeholder profile is used only if the profile
+     * can't be read at all.
+     * 
+     * @param uniqueId
+     */
+    public static void loadProfile(final UUID uniqueId) {
+        Prefetch prefetch = StorageEngine.prefetched.remove(uniqueId);
+        if (prefetch != null && !prefetch.isExpired(System.currentTimeMillis())) {
+            StorageEngine.pinProfile(prefetch.profile);
+            return;
+        }
+        
+        try {
+            StorageEngine.pinProfile(StorageEngine.readProfile(uniqueId));
+        } catch (IOException e) {
+            Log.addProblem("Can't load player profile: " + e.toString());
+            StorageEngine.pinProfile(PlayerProfile.placeholder(uniqueId));
         }
     }
     
@@ -240,11 +444,25 @@ public class StorageEngine {
      */
     @Deprecated
     public static void saveData() {
+        try {
+            StorageEngine.snapshotData().write();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Copies lobbies, arenas and gates on main thread and returns writer, that atomically writes them to their files.
+     * 
+     * @return writer of copied data
+     */
+    public static Checkpoint.Writer snapshotData() {
         Log.info("Saving data...");
+        AreaRegistry snapshot = StorageEngine.registry;
         // Save lobbies.
         YamlConfiguration yaml_lobbies = new YamlConfiguration();
         int i_lobbies = 0;
-        for (Lobby l : StorageEngine.lobbies.values()) {
+        for (Lobby l : snapshot.getLobbies().values()) {
             yaml_lobbies.set("lobbies.lobby" + i_lobbies + ".name", l.getName());
             yaml_lobbies.set("lobbies.lobby" + i_lobbies + ".checkinterval",
                     l.getCheckInterval());
@@ -262,17 +480,13 @@ public class StorageEngine {
                     "lobbies.lobby" + i_lobbies + ".region");
             i_lobbies++;
         }
-        try {
-            yaml_lobbies.save(new File(Paths.lobbiesPath()));
-            Log.info("Saved " + i_lobbies + " lobbies!");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        final String lobbies = yaml_lobbies.saveToString();
+        Log.info("Saving " + i_lobbies + " lobbies!");
         
         // Save arenas
         YamlConfiguration yaml_arenas = new YamlConfiguration();
         int i_arenas = 0;
-        for (AbstractArena a : StorageEngine.arenas.values()) {
+        for (AbstractArena a : snapshot.getArenas().values()) {
             yaml_arenas.set("arenas.arena" + i_arenas + ".name", a.getName());
             yaml_arenas.set("arenas.arena" + i_arenas + ".type",
                     a.getClass().getSimpleName());
@@ -280,23 +494,12 @@ public class StorageEngine {
                     a.getMinigame().getName());
             yaml_arenas.set("arenas.arena" + i_arenas + ".slots", a.getMaximumSlots());
             // Get options
-            for (Field f : a.getClass().getDeclaredFields())
-                if (f.isAnnotationPresent(ArenaOption.class)) {
-                    if (!f.isAccessible())
-                        f.setAccessible(true);
-                    
-                    try {
-                        if (f.get(a) != null) {
-                            yaml_arenas.set(
-                                    "arenas.arena" + i_arenas + ".options."
-                                            + f.getName(), f.get(a).toString());
-                        }
-                    } catch (IllegalArgumentException | IllegalAccessException e) {
-                        System.out.println("Error while saving arena " + a.getName()
-                                + "!");
-                        e.printStackTrace();
-                    }
-                }
+            for (ArenaOptions.Option option : ArenaOptions.of(a.getClass()).getOptions()) {
+                Object value = option.get(a);
+                if (value != null)
+                    yaml_arenas.set("arenas.arena" + i_arenas + ".options."
+                            + option.getName(), value.toString());
+            }
             
             // Save global flags
             for (AreaFlag flag : AreaFlag.values())
@@ -311,67 +514,214 @@ public class StorageEngine {
                         "arenas.arena" + i_arenas + ".region");
             i_arenas++;
         }
-        try {
-            yaml_arenas.save(new File(Paths.arenasPath()));
-            Log.info("Saved " + i_arenas + " arenas!");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        final String arenas = yaml_arenas.saveToString();
+        Log.info("Saving " + i_arenas + " arenas!");
         
         // Save gates
         YamlConfiguration yaml_gates = new YamlConfiguration();
         int i_gates = 0;
-        for (String key : StorageEngine.gates.keySet()) {
-            TeleportGate tg = StorageEngine.gates.get(key);
+        for (Map.Entry<String, TeleportGate> entry : snapshot.getGates().entrySet()) {
+            String key = entry.getKey();
+            TeleportGate tg = entry.getValue();
             yaml_gates.set("gates.gate" + i_gates + ".name", key);
             yaml_gates.set("gates.gate" + i_gates + ".action.type",
                     tg.getAction().getClass().getSimpleName());
+            yaml_gates.set("gates.gate" + i_gates + ".triggeredByMove",
+                    tg.isTriggeredByMove());
             if (tg.getRegion() != null)
                 tg.getRegion().serialize(yaml_gates, "gates.gate" + i_gates + ".region");
             i_gates++;
         }
-        try {
-            yaml_gates.save(new File(Paths.gatesPath()));
-            Log.info("Saved " + i_gates + " gates!");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        final String gates = yaml_gates.saveToString();
+        Log.info("Saving " + i_gates + " gates!");
+        
+        return new Checkpoint.Writer() {
+            @Override
+            public void write() throws IOException {
+                AtomicFiles.write(new File(Paths.lobbiesPath()), lobbies);
+                AtomicFiles.write(new File(Paths.arenasPath()), arenas);
+                AtomicFiles.write(new File(Paths.gatesPath()), gates);
+            }
+        };
     }
     
     public static void loadData() {
         Log.info("Loading data...");
+        StorageEngine.mapCatalog.load(new File(Paths.maps()));
+        StorageEngine.loadGateFlags(new File(Paths.gatesPath()));
+    }
+    
+    /**
+     * Loads triggeredByMove flags of gates saved in specified file.
+     * 
+     * @param file
+     *            gates file
+     */
+    private static synchronized void loadGateFlags(final File file) {
+        if (!file.exists())
+            return;
+        
+        ConfigurationSection gates = YamlConfiguration.loadConfiguration(file)
+                .getConfigurationSection("gates");
+        if (gates == null)
+            return;
         
+        for (String key : gates.getKeys(false)) {
+            String name = gates.getString(key + ".name");
+            if (name != null && gates.contains(key + ".triggeredByMove"))
+                StorageEngine.gateFlags.put(name,
+                        gates.getBoolean(key + ".triggeredByMove"));
+        }
+    }
+    
+    /**
+     * Returns catalog of loaded arena maps.
+     * 
+     * @return map catalog
+     */
+    public static MapCatalog getMapCatalog() {
+        return StorageEngine.mapCatalog;
     }
     
     public static void gateEnter(final Player player, final Location location) {
         // Find the right gate
-        for (TeleportGate gate : StorageEngine.gates.values())
-            if (gate.getRegion().intersects(location))
-                gate.teleport(player);
+        TeleportGate gate = StorageEngine.gateIndex.find(location);
+        if (gate != null)
+            gate.teleport(player);
     }
     
+    /**
+     * Called when player moved from one block to another. Executes gate, that the player stepped in, if the gate is
+     * triggered by movement.
+     * 
+     * @param player
+     *            player that moved
+     * @param from
+     *            previous location
+     * @param to
+     *            new location
+     */
+    public static void gateMove(final Player player, final Location from,
+            final Location to) {
+        TeleportGate gate = StorageEngine.gateIndex.find(to);
+        if (gate != null && gate.isTriggeredByMove()
+                && gate != StorageEngine.gateIndex.find(from))
+            gate.teleport(player);
+    }
+    
+    /**
+     * Schedules write of configs of arenas, which options changed since last save. Options are copied on main thread,
+     * compared and written by other thread.
+     */
     public static void saveArenas() {
-        for (AbstractArena arena : StorageEngine.arenas.values()) {
-            // Will be removed.
-            arena.save(Paths.arenaPath(arena.getBannableName()));
+        for (final AbstractArena arena : StorageEngine.registry.getArenas().values()) {
+            final ArenaOptions options = ArenaOptions.of(arena.getClass());
+            final Object[] snapshot = options.snapshot(arena);
+            final File file = new File(Paths.arenaPath(arena.getBannableName()));
+            StorageEngine.configWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    String[] values = arena.takeChangedOptions(snapshot);
+                    if (values == null)
+                        return;
+                    try {
+                        options.write(values, file);
+                    } catch (ParserConfigurationException | TransformerException
+                            | IOException e) {
+                        Log.addProblem("Can't save arena " + arena.getName() + ": "
+                                + e.toString());
+                        arena.invalidateOptionsSnapshot();
+                    }
+                }
+            });
         }
     }
     
-    public static void saveProfiles() {
-        for (PlayerProfile profile : StorageEngine.profiles.values()) {
-            profile.saveXML(Paths.profilePath(profile.getUniqueId().toString()));
+    /**
+     * Copies options of all arenas on main thread and returns writer, that writes configs of changed ones.
+     * 
+     * @return writer of changed arena configs
+     */
+    public static Checkpoint.Writer snapshotArenas() {
+        final List<AbstractArena> arenas = new ArrayList<AbstractArena>();
+        final List<Object[]> snapshots = new ArrayList<Object[]>();
+        for (AbstractArena arena : StorageEngine.registry.getArenas().values()) {
+            arenas.add(arena);
+            snapshots.add(ArenaOptions.of(arena.getClass()).snapshot(arena));
         }
+        
+        return new Checkpoint.Writer() {
+            @Override
+            public void write() throws Exception {
+                Exception failure = null;
+                for (int i = 0; i < arenas.size(); i++) {
+                    AbstractArena arena = arenas.get(i);
+                    String[] values = arena.takeChangedOptions(snapshots.get(i));
+                    if (values == null)
+                        continue;
+                    try {
+                        ArenaOptions.of(arena.getClass()).write(values,
+                                new File(Paths.arenaPath(arena.getBannableName())));
+                    } catch (ParserConfigurationException | TransformerException
+                            | IOException e) {
+                        arena.invalidateOptionsSnapshot();
+                        failure = e;
+                    }
+                }
+                if (failure != null)
+                    throw failure;
+            }
+        };
+    }
+    
+    /**
+     * Stops periodic saving of arena configs and waits until scheduled configs are written. Should be called when
+     * plugin is disabling, before {@link #snapshotArenas()}.
+     */
+    public static void shutdown() {
+        StorageEngine.arenaSaver.stop();
+        StorageEngine.configWriter.shutdown();
+        try {
+            if (!StorageEngine.configWriter.awaitTermination(30, TimeUnit.SECONDS))
+                Log.severe("Not all arena configs were saved in 30 seconds!");
+        } catch (InterruptedException e) {
+            Log.severe("Interrupted while saving arena configs!");
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Schedules save of all changed profiles. Profiles are written by {@link ProfileWriter} on other thread.
+     */
+    public static void saveProfiles() {
+        Pexel.getProfileWriter().flushAll();
     }
     
     public static void __redirectEvent(final String string, final Event event) {
         if (string.equalsIgnoreCase("PlayerQuitEvent")) {
             PlayerQuitEvent quitevent = (PlayerQuitEvent) event;
-            for (AbstractArena arena : StorageEngine.arenas.values()) {
-                if (arena.contains(quitevent.getPlayer())) {
-                    arena.onPlayerLeft(quitevent.getPlayer(),
-                            DisconnectReason.PLAYER_DISCONNECT);
-                }
+            AbstractArena arena = Pexel.getArenaRouter().getArena(quitevent.getPlayer());
+            if (arena != null) {
+                arena.onPlayerLeft(quitevent.getPlayer(),
+                        DisconnectReason.PLAYER_DISCONNECT);
             }
         }
     }
+    
+    /**
+     * Profile loaded before join.
+     */
+    private static final class Prefetch {
+        private final PlayerProfile profile;
+        private final long          time;
+        
+        private Prefetch(final PlayerProfile profile, final long time) {
+            this.profile = profile;
+            this.time = time;
+        }
+        
+        private boolean isExpired(final long now) {
+            return now - this.time > PREFETCH_EXPIRY;
+        }
+    }
 }
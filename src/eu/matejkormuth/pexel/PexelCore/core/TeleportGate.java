@@ -31,6 +31,7 @@ import eu.matejkormuth.pexel.PexelCore.actions.Action;
 public class TeleportGate {
     private final Region region;
     private Action       action;
+    private boolean      triggeredByMove = false;
     
     /**
      * Creates new teleport gate in specified region, with specified action that will be executed when PlayerPortalEvent
@@ -83,4 +84,24 @@ public class TeleportGate {
     public void setAction(final Action action) {
         this.action = action;
     }
+    
+    /**
+     * Returns whether is this gate executed when player walks into it (not only by PlayerPortalEvent).
+     * 
+     * @return true if gate is triggered by movement
+     */
+    public boolean isTriggeredByMove() {
+        return this.triggeredByMove;
+    }
+    
+    /**
+     * Sets whether should be this gate executed when player walks into it. Gates in portal frames should not be
+     * triggered by movement, because they would be executed twice.
+     * 
+     * @param triggeredByMove
+     *            true if gate should be triggered by movement
+     */
+    public void setTriggeredByMove(final boolean triggeredByMove) {
+        this.triggeredByMove = triggeredByMove;
+    }
 }
@@ -1,10 +1,8 @@
 package eu.matejkormuth.pexel.PexelCore.matchmaking;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -19,16 +17,18 @@ import org.bukkit.block.Sign;
 
 import eu.matejkormuth.pexel.PexelCore.Pexel;
 import eu.matejkormuth.pexel.PexelCore.arenas.AbstractArena;
+import eu.matejkormuth.pexel.PexelCore.core.Checkpoint;
 import eu.matejkormuth.pexel.PexelCore.core.Log;
 import eu.matejkormuth.pexel.PexelCore.core.Paths;
 import eu.matejkormuth.pexel.PexelCore.core.StorageEngine;
 import eu.matejkormuth.pexel.PexelCore.minigame.Minigame;
+import eu.matejkormuth.pexel.PexelCore.util.AtomicFiles;
 import eu.matejkormuth.pexel.PexelCore.util.BukkitTimer;
 
 /**
  * Sign updater.
  */
-public class MatchmakingSignUpdater implements Runnable {
+public class MatchmakingSignUpdater implements Runnable, Checkpoint.Participant {
     // Listo of cached signs.
     private final List<Block> cachedSigns = new ArrayList<Block>();
     // Timer for updates.
@@ -40,29 +40,29 @@ public class MatchmakingSignUpdater implements Runnable {
         this.timer.start();
     }
     
-    public void stop() {
+    /**
+     * Stops updating and copies cached signs. Returned writer atomically writes them to cache file.
+     */
+    @Override
+    public Checkpoint.Writer snapshot() {
         Log.partDisable("MatchmakingSignUpdater");
         this.timer.stop();
-        this.save();
-    }
-    
-    private void save() {
-        try {
-            Log.info("[MatchmakingSignUpdater] Saving cache...");
-            BufferedWriter bw = new BufferedWriter(new FileWriter(new File(
-                    Paths.msuCache())));
-            for (Block b : this.cachedSigns) {
-                bw.append(b.getLocation().getWorld().getName() + "|"
-                        + b.getLocation().getBlockX() + "|"
-                        + b.getLocation().getBlockY() + "|"
-                        + b.getLocation().getBlockZ() + "\n");
-            }
-            Log.info("[MatchmakingSignUpdater] Saved " + this.cachedSigns.size()
-                    + " blocks!");
-            bw.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        
+        final StringBuilder cache = new StringBuilder();
+        for (Block b : this.cachedSigns) {
+            cache.append(b.getLocation().getWorld().getName() + "|"
+                    + b.getLocation().getBlockX() + "|" + b.getLocation().getBlockY()
+                    + "|" + b.getLocation().getBlockZ() + "\n");
         }
+        Log.info("[MatchmakingSignUpdater] Saving " + this.cachedSigns.size()
+                + " blocks...");
+        
+        return new Checkpoint.Writer() {
+            @Override
+            public void write() throws IOException {
+                AtomicFiles.write(new File(Paths.msuCache()), cache.toString());
+            }
+        };
     }
     
     public void addSign(final Block b) {
@@ -0,0 +1,418 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.rollback;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+import eu.matejkormuth.pexel.PexelCore.Pexel;
+import eu.matejkormuth.pexel.PexelCore.core.Log;
+import eu.matejkormuth.pexel.PexelCore.core.Region;
+import eu.matejkormuth.pexel.PexelCore.core.SnapshotVisitor;
+import eu.matejkormuth.pexel.PexelCore.util.AtomicFiles;
+
+/**
+ * Compressed on-disk snapshot of blocks of region in pristine state. Every chunk of region is compressed separately,
+ * so when arena is reset, only heavily changed chunks are read and compared with world. Snapshot is tied to bounds of
+ * region and to checksum of map, so it is taken again when map is edited.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class ArenaSnapshot {
+    private static final int  MAGIC           = 0x5058534E; // PXSN
+    private static final int  VERSION         = 2;
+    /**
+     * Count of chunks copied in one tick while capturing.
+     */
+    private static final int  CHUNKS_PER_TICK = 4;
+    
+    private final Region      region;
+    private final File        file;
+    private final long        mapChecksum;
+    private final int         fromY;
+    private final int         toY;
+    // Offset and length of compressed chunks by chunk key, null if not read yet.
+    private Map<Long, long[]> index;
+    private volatile boolean  capturing       = false;
+    
+    /**
+     * Creates snapshot of specified region stored in specified file. Snapshot is not taken, until
+     * {@link #capture()} is called.
+     * 
+     * @param region
+     *            region
+     * @param file
+     *            file of snapshot
+     * @param mapChecksum
+     *            checksum of map (see {@link eu.matejkormuth.pexel.PexelCore.arenas.MapData#getChecksum()}), saved
+     *            snapshot of other version of map is not valid
+     */
+    public ArenaSnapshot(final Region region, final File file, final long mapChecksum) {
+        this.region = region;
+        this.file = file;
+        this.mapChecksum = mapChecksum;
+        this.fromY = region.getFromY();
+        this.toY = region.getToY();
+    }
+    
+    /**
+     * Returns count of chunks, that region of this snapshot occupies.
+     */
+    private int chunkCount() {
+        return ((this.region.getMaxBlockX() >> 4) - (this.region.getMinBlockX() >> 4) + 1)
+                * ((this.region.getMaxBlockZ() >> 4) - (this.region.getMinBlockZ() >> 4) + 1);
+    }
+    
+    private static long key(final int cx, final int cz) {
+        return (long) cx << 32 | cz & 0xFFFFFFFFL;
+    }
+    
+    /**
+     * Returns whether is specified chunk part of this snapshot.
+     * 
+     * @param world
+     *            world of chunk
+     * @param cx
+     *            x coordinate of chunk
+     * @param cz
+     *            z coordinate of chunk
+     * @return true if chunk is in region of this snapshot
+     */
+    public boolean containsChunk(final World world, final int cx, final int cz) {
+        return world == this.region.getWorld() && cx >= this.region.getMinBlockX() >> 4
+                && cx <= this.region.getMaxBlockX() >> 4
+                && cz >= this.region.getMinBlockZ() >> 4
+                && cz <= this.region.getMaxBlockZ() >> 4;
+    }
+    
+    /**
+     * Returns whether is specified block part of this snapshot.
+     * 
+     * @return true if block is in region of this snapshot
+     */
+    public boolean contains(final World world, final int x, final int y, final int z) {
+        return world == this.region.getWorld() && y >= this.fromY && y <= this.toY
+                && this.region.contains(x, y, z);
+    }
+    
+    /**
+     * Returns whether is snapshot saved and taken of same region and same version of map as this one. Reads only header
+     * of file.
+     * 
+     * @return true if snapshot can be used
+     */
+    public boolean isValid() {
+        if (this.capturing || !this.file.exists())
+            return false;
+        try {
+            this.loadIndex();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    public boolean isCapturing() {
+        return this.capturing;
+    }
+    
+    public File getFile() {
+        return this.file;
+    }
+    
+    /**
+     * Takes snapshot of all chunks of region and saves it asynchronously. Chunks are copied in small batches over
+     * several ticks and each chunk is compressed as soon as it is copied, so only few chunk snapshots are held in
+     * memory at once. Region should be in pristine state until capturing finishes. Must be called from main thread.
+     */
+    public void capture() {
+        if (this.capturing)
+            return;
+        
+        this.capturing = true;
+        final Capture capture = new Capture();
+        this.region.forEachBlockAsync(capture, CHUNKS_PER_TICK,
+                Pexel.getRollbackScheduler().getWorker(), new Region.VisitCallback() {
+                    @Override
+                    public void onFinished(final Region.VisitResult result, final Throwable cause) {
+                        if (result != Region.VisitResult.COMPLETED) {
+                            // Visitor stops only when chunk can't be compressed.
+                            ArenaSnapshot.this.failCapture(String.valueOf(cause != null ? cause
+                                    : capture.error));
+                            return;
+                        }
+                        try {
+                            Pexel.getRollbackScheduler().getWorker().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    ArenaSnapshot.this.finishCapture(capture);
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            ArenaSnapshot.this.failCapture(e.toString());
+                        }
+                    }
+                });
+    }
+    
+    private void failCapture(final String reason) {
+        Log.addProblem("Can't save snapshot '" + this.file.getName() + "': " + reason);
+        this.capturing = false;
+    }
+    
+    private void finishCapture(final Capture capture) {
+        try {
+            capture.finish(this.chunkCount());
+        } catch (IOException e) {
+            Log.addProblem("Can't save snapshot '" + this.file.getName() + "': "
+                    + e.toString());
+        } finally {
+            synchronized (this) {
+                this.index = null;
+            }
+            this.capturing = false;
+        }
+    }
+    
+    private void writeBounds(final DataOutputStream out) throws IOException {
+        out.writeUTF(this.region.getWorldName());
+        out.writeInt(this.region.getMinBlockX());
+        out.writeInt(this.fromY);
+        out.writeInt(this.region.getMinBlockZ());
+        out.writeInt(this.region.getMaxBlockX());
+        out.writeInt(this.toY);
+        out.writeInt(this.region.getMaxBlockZ());
+        out.writeLong(this.mapChecksum);
+    }
+    
+    private boolean readBounds(final DataInputStream in) throws IOException {
+        String world = in.readUTF();
+        int[] bounds = new int[6];
+        for (int i = 0; i < bounds.length; i++)
+            bounds[i] = in.readInt();
+        long mapChecksum = in.readLong();
+        return mapChecksum == this.mapChecksum && world.equals(this.region.getWorldName())
+                && bounds[0] == this.region.getMinBlockX() && bounds[1] == this.fromY
+                && bounds[2] == this.region.getMinBlockZ()
+                && bounds[3] == this.region.getMaxBlockX() && bounds[4] == this.toY
+                && bounds[5] == this.region.getMaxBlockZ();
+    }
+    
+    private void write(final int count, final ByteArrayOutputStream chunkIndex,
+            final ByteArrayOutputStream blobs) throws IOException {
+        // Header: magic, version, bounds, index of chunks. Then compressed chunks.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + chunkIndex.size()
+                + blobs.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        this.writeBounds(out);
+        out.writeInt(count);
+        chunkIndex.writeTo(out);
+        blobs.writeTo(out);
+        out.flush();
+        AtomicFiles.write(this.file, bytes.toByteArray());
+    }
+    
+    private static byte[] encode(final short[] types, final byte[] data, final int length)
+            throws IOException {
+        // All types first, then all data, compresses better.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+        for (int i = 0; i < length; i++)
+            out.writeShort(types[i]);
+        out.write(data, 0, length);
+        out.close();
+        return bytes.toByteArray();
+    }
+    
+    private synchronized Map<Long, long[]> loadIndex() throws IOException {
+        if (this.index != null)
+            return this.index;
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Snapshot " + this.file.getName()
+                        + " has unknown format!");
+            if (!this.readBounds(in))
+                throw new IOException("Snapshot " + this.file.getName()
+                        + " was taken of different region!");
+            
+            int count = in.readInt();
+            int[] xs = new int[count];
+            int[] zs = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                xs[i] = in.readInt();
+                zs[i] = in.readInt();
+                lengths[i] = in.readInt();
+            }
+            // Chunks are at the end of file, right after index.
+            long offset = this.file.length();
+            for (int length : lengths)
+                offset -= length;
+            Map<Long, long[]> index = new HashMap<Long, long[]>(count * 2);
+            for (int i = 0; i < count; i++) {
+                index.put(ArenaSnapshot.key(xs[i], zs[i]), new long[] { offset, lengths[i] });
+                offset += lengths[i];
+            }
+            this.index = index;
+            return index;
+        }
+    }
+    
+    private synchronized byte[] readChunk(final int cx, final int cz) throws IOException {
+        long[] entry = this.loadIndex().get(ArenaSnapshot.key(cx, cz));
+        if (entry == null)
+            throw new IOException("Snapshot " + this.file.getName()
+                    + " does not contain chunk " + cx + ", " + cz + "!");
+        
+        byte[] blob = new byte[(int) entry[1]];
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+            raf.seek(entry[0]);
+            raf.readFully(blob);
+        }
+        return blob;
+    }
+    
+    /**
+     * Compares specified current state of chunk with snapshot and returns journal of pristine states of all blocks,
+     * that differ. Can be called from any thread.
+     * 
+     * @param current
+     *            snapshot of chunk in current state
+     * @return journal of blocks, that should be restored
+     * @throws IOException
+     *             if snapshot can't be read
+     */
+    @SuppressWarnings("deprecation")
+    public BlockJournal diff(final ChunkSnapshot current) throws IOException {
+        int cx = current.getX();
+        int cz = current.getZ();
+        int minX = Math.max(this.region.getMinBlockX(), cx << 4) & 15;
+        int maxX = Math.min(this.region.getMaxBlockX(), (cx << 4) + 15) & 15;
+        int minZ = Math.max(this.region.getMinBlockZ(), cz << 4) & 15;
+        int maxZ = Math.min(this.region.getMaxBlockZ(), (cz << 4) + 15) & 15;
+        int count = (maxX - minX + 1) * (maxZ - minZ + 1) * (this.toY - this.fromY + 1);
+        
+        short[] types = new short[count];
+        byte[] data = new byte[count];
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(this.readChunk(cx, cz))))) {
+            for (int i = 0; i < count; i++)
+                types[i] = in.readShort();
+            in.readFully(data);
+        }
+        
+        World world = this.region.getWorld();
+        BlockJournal journal = new BlockJournal();
+        int i = 0;
+        for (int x = minX; x <= maxX; x++)
+            for (int z = minZ; z <= maxZ; z++)
+                for (int y = this.fromY; y <= this.toY; y++, i++)
+                    if (current.getBlockTypeId(x, y, z) != types[i]
+                            || current.getBlockData(x, y, z) != data[i])
+                        journal.record(world, (cx << 4) + x, y, (cz << 4) + z, types[i],
+                                data[i]);
+        return journal;
+    }
+    
+    /**
+     * Visitor, that collects blocks of each chunk in order of {@link #diff(ChunkSnapshot)} and compresses chunk, when
+     * visiting moves to next one. Called only from worker thread, one batch at a time.
+     */
+    private final class Capture implements SnapshotVisitor {
+        private final ByteArrayOutputStream chunkIndex = new ByteArrayOutputStream();
+        private final DataOutputStream      indexOut   = new DataOutputStream(this.chunkIndex);
+        private final ByteArrayOutputStream blobs      = new ByteArrayOutputStream();
+        private final short[]               types;
+        private final byte[]                data;
+        private int                         count      = 0;
+        // Chunk, which blocks are being collected.
+        private ChunkSnapshot               chunk;
+        private int                         length     = 0;
+        private IOException                 error;
+        
+        Capture() {
+            int height = Math.max(0, ArenaSnapshot.this.toY - ArenaSnapshot.this.fromY + 1);
+            this.types = new short[16 * 16 * height];
+            this.data = new byte[16 * 16 * height];
+        }
+        
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean visit(final ChunkSnapshot snapshot, final int x, final int y, final int z) {
+            if (snapshot != this.chunk) {
+                try {
+                    this.flushChunk();
+                } catch (IOException e) {
+                    this.error = e;
+                    return false;
+                }
+                this.chunk = snapshot;
+            }
+            this.types[this.length] = (short) snapshot.getBlockTypeId(x & 15, y, z & 15);
+            this.data[this.length++] = (byte) snapshot.getBlockData(x & 15, y, z & 15);
+            return true;
+        }
+        
+        private void flushChunk() throws IOException {
+            if (this.chunk == null)
+                return;
+            byte[] blob = ArenaSnapshot.encode(this.types, this.data, this.length);
+            this.indexOut.writeInt(this.chunk.getX());
+            this.indexOut.writeInt(this.chunk.getZ());
+            this.indexOut.writeInt(blob.length);
+            this.blobs.write(blob);
+            this.count++;
+            this.chunk = null;
+            this.length = 0;
+        }
+        
+        /**
+         * Compresses last chunk and saves snapshot, if all chunks of region were captured.
+         */
+        void finish(final int expected) throws IOException {
+            if (this.error != null)
+                throw this.error;
+            this.flushChunk();
+            if (this.count != expected)
+                throw new IOException("Only " + this.count + " of " + expected
+                        + " chunks were captured!");
+            ArenaSnapshot.this.write(this.count, this.chunkIndex, this.blobs);
+        }
+    }
+}
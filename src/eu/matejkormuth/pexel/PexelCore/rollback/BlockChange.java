@@ -76,6 +76,24 @@ public class BlockChange {
         state.update(true, false); //Do not apply physics on rollbacks.
     }
     
+    /**
+     * Returns the material before change.
+     * 
+     * @return old material
+     */
+    public Material getOldMaterial() {
+        return this.oldMaterial;
+    }
+    
+    /**
+     * Returns the data before change.
+     * 
+     * @return old data
+     */
+    public MaterialData getOldMaterialData() {
+        return this.oldMaterialData;
+    }
+    
     /**
      * Returns the location of block.
      * 
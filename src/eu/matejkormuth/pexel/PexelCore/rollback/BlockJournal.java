@@ -0,0 +1,403 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.rollback;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * Journal of original states of changed blocks. Block positions are packed to longs and deduplicated in open-addressing
+ * hash table, old types and data are stored in parallel primitive arrays in order of recording. Only first change of
+ * each block is stored, as it holds the original state, until the block is forgotten by {@link #forget(long)}.
+ * <p>
+ * Packed position contains world slot (3 bits), x (26 bits), z (26 bits) and y (8 bits), so one journal can hold
+ * blocks of 8 worlds.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class BlockJournal {
+    private static final long EMPTY          = -1L;
+    private static final int  MAX_WORLDS     = 8;
+    private static final int  MASK_XZ        = 0x3FFFFFF;
+    
+    private final World[]     worlds         = new World[MAX_WORLDS];
+    private int               worldCount     = 0;
+    
+    // Recorded changes in order.
+    private long[]            positions      = new long[64];
+    private int[]             types          = new int[64];
+    private byte[]            data           = new byte[64];
+    private int               size           = 0;
+    
+    // Open-addressing set of recorded positions.
+    private long[]            table          = BlockJournal.emptyTable(128);
+    
+    /**
+     * Returns packed position of specified block.
+     * 
+     * @param worldSlot
+     *            slot of world in this journal
+     * @param x
+     *            x coordinate
+     * @param y
+     *            y coordinate
+     * @param z
+     *            z coordinate
+     * @return packed position
+     */
+    public static long pack(final int worldSlot, final int x, final int y, final int z) {
+        return (long) worldSlot << 60 | (long) (x & MASK_XZ) << 34
+                | (long) (z & MASK_XZ) << 8 | y & 0xFF;
+    }
+    
+    public static int unpackWorld(final long position) {
+        return (int) (position >>> 60);
+    }
+    
+    public static int unpackX(final long position) {
+        // Shift left and right to restore sign.
+        return (int) (position << 4 >> 38);
+    }
+    
+    public static int unpackZ(final long position) {
+        return (int) (position << 30 >> 38);
+    }
+    
+    public static int unpackY(final long position) {
+        return (int) (position & 0xFF);
+    }
+    
+    private static long[] emptyTable(final int capacity) {
+        long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+    
+    private static int hash(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+    
+    private int worldSlot(final World world) {
+        for (int i = 0; i < this.worldCount; i++)
+            if (this.worlds[i] == world)
+                return i;
+        if (this.worldCount == MAX_WORLDS)
+            throw new IllegalStateException("Block journal can't hold more than "
+                    + MAX_WORLDS + " worlds!");
+        this.worlds[this.worldCount] = world;
+        return this.worldCount++;
+    }
+    
+    /**
+     * Records original state of specified block, if it was not recorded yet.
+     * 
+     * @param block
+     *            block before change
+     * @return true if block was recorded, false if it was already in journal
+     */
+    @SuppressWarnings("deprecation")
+    public boolean record(final Block block) {
+        return this.record(block.getWorld(), block.getX(), block.getY(), block.getZ(),
+                block.getTypeId(), block.getData());
+    }
+    
+    /**
+     * Records original state of specified block, if it was not recorded yet.
+     * 
+     * @return true if block was recorded, false if it was already in journal
+     */
+    public boolean record(final World world, final int x, final int y, final int z,
+            final int type, final byte data) {
+        long position = BlockJournal.pack(this.worldSlot(world), x, y, z);
+        if (!this.insert(position))
+            return false;
+        
+        if (this.size == this.positions.length) {
+            int capacity = this.size * 2;
+            this.positions = Arrays.copyOf(this.positions, capacity);
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.data = Arrays.copyOf(this.data, capacity);
+        }
+        this.positions[this.size] = position;
+        this.types[this.size] = type;
+        this.data[this.size] = data;
+        this.size++;
+        return true;
+    }
+    
+    private boolean insert(final long key) {
+        // Keep load factor under 1/2.
+        if ((this.size + 1) * 2 > this.table.length)
+            this.rehash(this.table.length * 2);
+        
+        int mask = this.table.length - 1;
+        int i = BlockJournal.hash(key) & mask;
+        while (this.table[i] != EMPTY) {
+            if (this.table[i] == key)
+                return false;
+            i = (i + 1) & mask;
+        }
+        this.table[i] = key;
+        return true;
+    }
+    
+    private void rehash(final int capacity) {
+        long[] old = this.table;
+        this.table = BlockJournal.emptyTable(capacity);
+        int mask = capacity - 1;
+        for (long key : old)
+            if (key != EMPTY) {
+                int i = BlockJournal.hash(key) & mask;
+                while (this.table[i] != EMPTY)
+                    i = (i + 1) & mask;
+                this.table[i] = key;
+            }
+    }
+    
+    private int findSlot(final World world) {
+        for (int i = 0; i < this.worldCount; i++)
+            if (this.worlds[i] == world)
+                return i;
+        return -1;
+    }
+    
+    /**
+     * Returns whether is specified block recorded in this journal.
+     * 
+     * @param block
+     *            block
+     * @return true if block is recorded
+     */
+    public boolean contains(final Block block) {
+        int slot = this.findSlot(block.getWorld());
+        if (slot == -1)
+            return false;
+        
+        long key = BlockJournal.pack(slot, block.getX(), block.getY(), block.getZ());
+        int mask = this.table.length - 1;
+        int i = BlockJournal.hash(key) & mask;
+        while (this.table[i] != EMPTY) {
+            if (this.table[i] == key)
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+    
+    /**
+     * Forgets that specified block was recorded, so its next change is recorded again. Recorded changes stay in
+     * journal. Used after the block was restored.
+     */
+    public void forget(final World world, final int x, final int y, final int z) {
+        int slot = this.findSlot(world);
+        if (slot != -1)
+            this.forget(BlockJournal.pack(slot, x, y, z));
+    }
+    
+    /**
+     * Forgets that block with specified packed position (see {@link #getPosition(int)}) was recorded, so its next
+     * change is recorded again. Recorded changes stay in journal.
+     * 
+     * @param position
+     *            packed position
+     */
+    public void forget(final long position) {
+        int mask = this.table.length - 1;
+        int i = BlockJournal.hash(position) & mask;
+        while (this.table[i] != position) {
+            if (this.table[i] == EMPTY)
+                return;
+            i = (i + 1) & mask;
+        }
+        // Shift following keys back, so lookups don't stop at the hole.
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (this.table[j] == EMPTY)
+                break;
+            int home = BlockJournal.hash(this.table[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                this.table[i] = this.table[j];
+                i = j;
+            }
+        }
+        this.table[i] = EMPTY;
+    }
+    
+    /**
+     * Restores original state of change at specified index. Physics is not applied.
+     * 
+     * @param index
+     *            index of change
+     */
+    @SuppressWarnings("deprecation")
+    public void restore(final int index) {
+        long position = this.positions[index];
+        Block block = this.worlds[BlockJournal.unpackWorld(position)].getBlockAt(
+                BlockJournal.unpackX(position), BlockJournal.unpackY(position),
+                BlockJournal.unpackZ(position));
+        block.setTypeIdAndData(this.types[index], this.data[index], false);
+    }
+    
+    /**
+     * Returns count of recorded changes.
+     * 
+     * @return count of changes
+     */
+    public int size() {
+        return this.size;
+    }
+    
+    public long getPosition(final int index) {
+        return this.positions[index];
+    }
+    
+    public World getWorld(final int index) {
+        return this.worlds[BlockJournal.unpackWorld(this.positions[index])];
+    }
+    
+    public int getType(final int index) {
+        return this.types[index];
+    }
+    
+    public byte getData(final int index) {
+        return this.data[index];
+    }
+    
+    /**
+     * Returns packed position of chunk of specified packed block position.
+     * 
+     * @param position
+     *            packed block position
+     * @return packed chunk position
+     */
+    public static long chunkOf(final long position) {
+        // Clear low 4 bits of x and z and whole y.
+        return position & ~(0xFL << 34 | 0xFL << 8 | 0xFF);
+    }
+    
+    /**
+     * Reorders changes starting at specified index, so changes in same chunk are next to each other. Chunks keep order
+     * of their first change, changes in chunk keep their order. Runs in linear time.
+     * 
+     * @param from
+     *            index of first change to reorder
+     */
+    public void groupByChunk(final int from) {
+        int count = this.size - from;
+        if (count < 2)
+            return;
+        
+        Map<Long, Integer> groups = new HashMap<Long, Integer>();
+        int[] group = new int[count];
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            Long chunk = BlockJournal.chunkOf(this.positions[from + i]);
+            Integer g = groups.get(chunk);
+            if (g == null) {
+                g = groups.size();
+                groups.put(chunk, g);
+            }
+            group[i] = g;
+            sizes[g]++;
+        }
+        if (groups.size() == 1)
+            return;
+        
+        // Counting sort by group.
+        int[] offsets = new int[groups.size()];
+        for (int g = 1; g < offsets.length; g++)
+            offsets[g] = offsets[g - 1] + sizes[g - 1];
+        long[] positions = new long[count];
+        int[] types = new int[count];
+        byte[] data = new byte[count];
+        for (int i = 0; i < count; i++) {
+            int target = offsets[group[i]]++;
+            positions[target] = this.positions[from + i];
+            types[target] = this.types[from + i];
+            data[target] = this.data[from + i];
+        }
+        System.arraycopy(positions, 0, this.positions, from, count);
+        System.arraycopy(types, 0, this.types, from, count);
+        System.arraycopy(data, 0, this.data, from, count);
+    }
+    
+    /**
+     * Moves changes starting at specified index, that are in specified chunks, after all other changes. Order of
+     * changes is kept otherwise. Runs in linear time.
+     * 
+     * @param from
+     *            index of first change to reorder
+     * @param chunks
+     *            packed chunk positions (see {@link #chunkOf(long)})
+     * @return index of first moved change
+     */
+    public int partition(final int from, final Set<Long> chunks) {
+        int count = this.size - from;
+        long[] positions = new long[count];
+        int[] types = new int[count];
+        byte[] data = new byte[count];
+        int kept = 0;
+        int moved = count;
+        // Kept changes from start, moved from end in reverse order.
+        for (int i = 0; i < count; i++) {
+            int target = chunks.contains(BlockJournal.chunkOf(this.positions[from + i])) ? --moved
+                    : kept++;
+            positions[target] = this.positions[from + i];
+            types[target] = this.types[from + i];
+            data[target] = this.data[from + i];
+        }
+        // Reverse moved changes back to original order.
+        for (int i = moved, j = count - 1; i < j; i++, j--) {
+            long position = positions[i];
+            positions[i] = positions[j];
+            positions[j] = position;
+            int type = types[i];
+            types[i] = types[j];
+            types[j] = type;
+            byte value = data[i];
+            data[i] = data[j];
+            data[j] = value;
+        }
+        System.arraycopy(positions, 0, this.positions, from, count);
+        System.arraycopy(types, 0, this.types, from, count);
+        System.arraycopy(data, 0, this.data, from, count);
+        return from + kept;
+    }
+    
+    /**
+     * Removes all changes.
+     */
+    public void clear() {
+        this.positions = new long[64];
+        this.types = new int[64];
+        this.data = new byte[64];
+        this.table = BlockJournal.emptyTable(128);
+        this.size = 0;
+        Arrays.fill(this.worlds, null);
+        this.worldCount = 0;
+    }
+}
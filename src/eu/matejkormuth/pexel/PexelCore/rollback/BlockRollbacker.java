@@ -18,13 +18,20 @@
 // @formatter:on
 package eu.matejkormuth.pexel.PexelCore.rollback;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
 
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
 
 import eu.matejkormuth.pexel.PexelCore.Pexel;
+import eu.matejkormuth.pexel.PexelCore.core.Log;
 
 /**
  * Block rollbacker.
@@ -33,59 +40,230 @@ import eu.matejkormuth.pexel.PexelCore.Pexel;
  * 
  */
 public class BlockRollbacker {
-    //List of changes.
-    private final List<BlockChange> changes           = new ArrayList<BlockChange>();
-    //List of location changes.
-    private final List<Location>    changeLocations   = new ArrayList<Location>();
-    //Bukkit task id.
-    private int                     taskId            = 0;
+    /**
+     * Default minimum count of changes in chunk, that is compared with snapshot instead of replaying journal. Taking
+     * snapshot of chunk costs main thread about as much as few hundreds of block changes.
+     */
+    public static final int           DEFAULT_BULK_THRESHOLD = 256;
+    
+    //Name used in progress reports.
+    private final String              name;
+    //Journal of original block states.
+    private final BlockJournal        journal                = new BlockJournal();
+    //Index of next change to roll back.
+    private int                       cursor                 = 0;
     //Runnable to be run after async rollback.
-    private Runnable                onFinished;
+    private Runnable                  onFinished;
     //Max block changes per one game tick.
-    private int                     maxChangesPerTick = 128;
+    private int                       maxChangesPerTick      = Integer.MAX_VALUE;
+    //Changes rolled back in current tick.
+    private int                       changesThisTick        = 0;
+    //Time when async rollback started (nanoTime) or 0.
+    private long                      startTime              = 0;
+    //Changes rolled back since start of async rollback.
+    private int                       restored               = 0;
+    //Pristine snapshot of rolled back region or null.
+    private ArenaSnapshot             snapshot;
+    //Min count of changes in chunk, that is restored from snapshot.
+    private int                       bulkThreshold          = DEFAULT_BULK_THRESHOLD;
+    //Start indexes of journal chunks restored from snapshot and end of the last one, or null.
+    private int[]                     bulkRuns;
+    //Index of next chunk to compare with snapshot.
+    private int                       bulkNext               = 0;
+    //Changes in chunks, that were not compared with snapshot yet.
+    private int                       bulkPending            = 0;
+    //Pristine states of blocks, that differ from snapshot.
+    private final Queue<BlockJournal> patches                = new ArrayDeque<BlockJournal>();
+    //Index of next change in first patch.
+    private int                       patchCursor            = 0;
+    //Changes in patches, that were not rolled back yet.
+    private int                       patchPending           = 0;
+    //Number of current rollback. Comparisons finished after end of their rollback are ignored.
+    private int                       generation             = 0;
+    //Persistent copy of journal or null.
+    private JournalFile               journalFile;
+    
+    public BlockRollbacker() {
+        this("rollbacker");
+    }
+    
+    /**
+     * Creates new rollbacker with specified name (for example name of arena).
+     * 
+     * @param name
+     *            name shown in progress reports
+     */
+    public BlockRollbacker(final String name) {
+        this.name = name;
+    }
     
     /**
-     * Registers a change to this rollbacker.
+     * Registers a change to this rollbacker. Only first change of each block is kept, until the block is restored.
      * 
      * @param change
      */
+    @SuppressWarnings("deprecation")
     public void addChange(final BlockChange change) {
-        if (!this.changeLocations.contains(change.getLocation())) {
-            this.changes.add(change);
-            this.changeLocations.add(change.getLocation());
-        }
+        Location location = change.getLocation();
+        this.addChange(location.getWorld(), location.getBlockX(),
+                location.getBlockY(), location.getBlockZ(),
+                change.getOldMaterial().getId(), change.getOldMaterialData().getData());
+    }
+    
+    /**
+     * Registers original state of specified block, that is going to be changed. Only first change of each block is
+     * kept, until the block is restored.
+     * 
+     * @param block
+     *            block before change
+     */
+    @SuppressWarnings("deprecation")
+    public void addChange(final Block block) {
+        this.addChange(block.getWorld(), block.getX(), block.getY(), block.getZ(),
+                block.getTypeId(), block.getData());
+    }
+    
+    /**
+     * Registers original state of block at specified position. Only first change of each block is kept, until the block
+     * is restored. Changes registered during async rollback are rolled back by it too.
+     */
+    public void addChange(final World world, final int x, final int y, final int z,
+            final int type, final byte data) {
+        if (this.journal.record(world, x, y, z, type, data) && this.journalFile != null)
+            this.journalFile.append(world, x, y, z, type, data);
+    }
+    
+    public String getName() {
+        return this.name;
+    }
+    
+    /**
+     * Sets pristine snapshot of region, that changes of this rollbacker are in. When rolling back asynchronously,
+     * chunks with many changes are compared with snapshot and only blocks, that differ, are restored.
+     * 
+     * @param snapshot
+     *            snapshot or null to always replay journal
+     */
+    public void setSnapshot(final ArenaSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+    
+    public ArenaSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+    
+    /**
+     * Sets file, that all new changes are streamed to, so they can be rolled back after crash. File is truncated when
+     * rollback finishes.
+     * 
+     * @param journalFile
+     *            opened journal file or null
+     */
+    public void setJournalFile(final JournalFile journalFile) {
+        this.journalFile = journalFile;
+    }
+    
+    public JournalFile getJournalFile() {
+        return this.journalFile;
+    }
+    
+    /**
+     * Sets minimum count of changes in chunk, that is restored from snapshot instead of replaying journal.
+     * 
+     * @param threshold
+     *            count of changes
+     */
+    public void setBulkThreshold(final int threshold) {
+        this.bulkThreshold = Math.max(1, threshold);
+    }
+    
+    /**
+     * Returns count of changes, that were not rolled back yet.
+     * 
+     * @return count of changes
+     */
+    public int getPendingChanges() {
+        int pending = this.journal.size() - this.cursor;
+        if (this.bulkRuns != null && this.cursor <= this.bulkRuns[0])
+            pending -= this.bulkRuns[this.bulkRuns.length - 1] - this.bulkRuns[0];
+        return pending + this.bulkPending + this.patchPending;
+    }
+    
+    /**
+     * Returns whether is async rollback in progress.
+     * 
+     * @return true if rollback is running
+     */
+    public boolean isRollingBack() {
+        return this.startTime != 0;
+    }
+    
+    /**
+     * Returns progress of async rollback.
+     * 
+     * @return progress from 0 to 1
+     */
+    public double getProgress() {
+        int total = this.restored + this.getPendingChanges();
+        if (total <= 0)
+            return 1;
+        return (double) this.restored / total;
+    }
+    
+    /**
+     * Returns estimated time to end of async rollback based on its speed so far.
+     * 
+     * @return estimated time in milliseconds or -1 if it is not known yet
+     */
+    public long getEta() {
+        if (this.startTime == 0 || this.restored == 0)
+            return -1;
+        long elapsed = System.nanoTime() - this.startTime;
+        return elapsed / this.restored * this.getPendingChanges() / 1000000;
     }
     
     /**
      * Reverts all registered changes right after call of this function. (Not recomended)
      */
     public void rollback() {
-        for (Iterator<BlockChange> iterator = this.changes.iterator(); iterator.hasNext();) {
-            BlockChange change = iterator.next();
-            change.applyRollback();
-            this.changeLocations.remove(change.getLocation());
-            iterator.remove();
-        }
+        // Snapshot is not used, chunks waiting for it are restored from journal.
+        int[] runs = this.bulkRuns;
+        this.bulkRuns = null;
+        if (runs != null && this.cursor > runs[0])
+            for (int i = runs[0]; i < runs[runs.length - 1]; i++)
+                this.journal.restore(i);
+        for (BlockJournal patch : this.patches)
+            for (int i = 0; i < patch.size(); i++)
+                patch.restore(i);
+        
+        this.journal.groupByChunk(this.cursor);
+        while (this.cursor < this.journal.size())
+            this.journal.restore(this.cursor++);
+        this.finish();
     }
     
     /**
-     * Starts a task for rollbacking with default (128) amount of blocks reverted in one tick.
+     * Starts rolling back by global {@link RollbackScheduler}, which shares time of tick with other rollbacks. If
+     * snapshot is set, chunks with at least bulk threshold changes are compared with it off main thread and only
+     * blocks, that differ, are restored, so rollback of heavily changed region is bounded by its size.
      * 
      * @param onFinished
      *            runnable, that should be called after the rollback is done.
      */
     public void rollbackAsync(final Runnable onFinished) {
         this.onFinished = onFinished;
-        this.taskId = Pexel.getScheduler().scheduleSyncRepeatingTask(new Runnable() {
-            @Override
-            public void run() {
-                BlockRollbacker.this.doRollback();
-            }
-        }, 0L, 1L);
+        if (this.startTime == 0) {
+            this.journal.groupByChunk(this.cursor);
+            this.planBulkRestore();
+            this.restored = 0;
+            this.startTime = System.nanoTime();
+        }
+        Pexel.getRollbackScheduler().submit(this);
     }
     
     /**
-     * Starts a task for rollbacking with specified amount of blocks reverted in one tick.
+     * Starts rolling back by global {@link RollbackScheduler} with specified maximum amount of blocks reverted in one
+     * tick.
      * 
      * @param onFinished
      *            runnable, that should be called after the rollback is done.
@@ -96,27 +274,180 @@ public class BlockRollbacker {
     }
     
     /**
-     * Performs one rollback (rollbacks this.maxChangesPerTick blocks).
+     * Chooses chunks, that have enough changes to be restored from snapshot, and moves their changes to the end of
+     * journal. Changes must be grouped by chunk.
+     */
+    private void planBulkRestore() {
+        if (this.snapshot == null || !this.snapshot.isValid())
+            return;
+        
+        Set<Long> chunks = new HashSet<Long>();
+        int size = this.journal.size();
+        int i = this.cursor;
+        while (i < size) {
+            long chunk = BlockJournal.chunkOf(this.journal.getPosition(i));
+            int end = i + 1;
+            while (end < size && BlockJournal.chunkOf(this.journal.getPosition(end)) == chunk)
+                end++;
+            if (end - i >= this.bulkThreshold
+                    && this.snapshot.containsChunk(this.journal.getWorld(i),
+                            BlockJournal.unpackX(chunk) >> 4, BlockJournal.unpackZ(chunk) >> 4))
+                chunks.add(chunk);
+            i = end;
+        }
+        if (chunks.isEmpty())
+            return;
+        
+        int start = this.journal.partition(this.cursor, chunks);
+        int[] runs = new int[chunks.size() + 1];
+        int run = 0;
+        for (i = start; i < size; i++)
+            if (i == start || BlockJournal.chunkOf(this.journal.getPosition(i)) != BlockJournal.chunkOf(
+                    this.journal.getPosition(i - 1)))
+                runs[run++] = i;
+        runs[run] = size;
+        this.bulkRuns = runs;
+        this.bulkNext = 0;
+        this.bulkPending = size - start;
+    }
+    
+    /**
+     * Takes snapshot of chunk of specified bulk run and compares it with pristine snapshot on rollback worker.
+     */
+    private void requestChunk(final int run) {
+        long position = this.journal.getPosition(this.bulkRuns[run]);
+        World world = this.journal.getWorld(this.bulkRuns[run]);
+        final ChunkSnapshot current = world.getChunkAt(BlockJournal.unpackX(position) >> 4,
+                BlockJournal.unpackZ(position) >> 4).getChunkSnapshot();
+        // Changes made after the chunk snapshot are recorded again and restored before patch.
+        for (int i = this.bulkRuns[run]; i < this.bulkRuns[run + 1]; i++)
+            this.journal.forget(this.journal.getPosition(i));
+        final ArenaSnapshot snapshot = this.snapshot;
+        final int generation = this.generation;
+        Pexel.getRollbackScheduler().getWorker().execute(new Runnable() {
+            @Override
+            public void run() {
+                BlockJournal patch = null;
+                try {
+                    patch = snapshot.diff(current);
+                } catch (IOException e) {
+                    Log.addProblem("Can't read snapshot '" + snapshot.getFile().getName()
+                            + "': " + e.toString());
+                }
+                
+                final BlockJournal result = patch;
+                if (Pexel.getCore().isEnabled())
+                    Bukkit.getScheduler().runTask(Pexel.getCore(), new Runnable() {
+                        @Override
+                        public void run() {
+                            BlockRollbacker.this.chunkCompared(generation, run, result);
+                        }
+                    });
+            }
+        });
+    }
+    
+    /**
+     * Queues blocks of compared chunk for restoring. If snapshot could not be read, journal of the chunk is used.
+     */
+    private void chunkCompared(final int generation, final int run, final BlockJournal result) {
+        if (generation != this.generation || this.bulkRuns == null)
+            return;
+        
+        int start = this.bulkRuns[run];
+        int end = this.bulkRuns[run + 1];
+        this.bulkPending -= end - start;
+        BlockJournal patch = result == null ? new BlockJournal() : result;
+        for (int i = start; i < end; i++) {
+            // Changes out of snapshot region are always restored from journal.
+            long position = this.journal.getPosition(i);
+            int x = BlockJournal.unpackX(position);
+            int y = BlockJournal.unpackY(position);
+            int z = BlockJournal.unpackZ(position);
+            World world = this.journal.getWorld(i);
+            if (result == null || !this.snapshot.contains(world, x, y, z))
+                patch.record(world, x, y, z, this.journal.getType(i), this.journal.getData(i));
+        }
+        if (patch.size() > 0) {
+            this.patches.add(patch);
+            this.patchPending += patch.size();
+        }
+    }
+    
+    /**
+     * Called by scheduler at start of each tick.
+     */
+    void newTick() {
+        this.changesThisTick = 0;
+    }
+    
+    /**
+     * Reverts at most specified count of changes, limited by max changes per tick.
+     * 
+     * @param count
+     *            maximum count of changes
+     * @return count of reverted changes
      */
-    private void doRollback() {
-        if (this.changes.size() == 0) {
-            Pexel.getScheduler().cancelTask(this.taskId);
-            if (this.onFinished != null)
-                this.onFinished.run();
+    int step(final int count) {
+        int limit = (int) Math.min(count, (long) this.maxChangesPerTick - this.changesThisTick);
+        if (limit <= 0)
+            return 0;
+        
+        // Chunks are requested one per step, so snapshots of them don't take whole tick.
+        if (this.bulkRuns != null && this.bulkNext < this.bulkRuns.length - 1) {
+            this.requestChunk(this.bulkNext++);
+            return 1;
         }
-        else {
-            int count = 0;
-            for (Iterator<BlockChange> iterator = this.changes.iterator(); iterator.hasNext();) {
-                if (count > this.maxChangesPerTick)
-                    break;
-                else {
-                    BlockChange bc = iterator.next();
-                    this.changeLocations.remove(bc.getLocation());
-                    bc.applyRollback();
-                    iterator.remove();
+        
+        int done = 0;
+        while (done < limit) {
+            if (this.bulkRuns != null && this.cursor == this.bulkRuns[0])
+                this.cursor = this.bulkRuns[this.bulkRuns.length - 1];
+            
+            if (this.cursor < this.journal.size()) {
+                // Block changed again after restore must be recorded again.
+                this.journal.restore(this.cursor);
+                this.journal.forget(this.journal.getPosition(this.cursor++));
+            }
+            else if (!this.patches.isEmpty()) {
+                BlockJournal patch = this.patches.peek();
+                patch.restore(this.patchCursor++);
+                this.patchPending--;
+                if (this.patchCursor == patch.size()) {
+                    this.patches.poll();
+                    this.patchCursor = 0;
                 }
-                count++;
             }
+            else {
+                break;
+            }
+            done++;
         }
+        this.changesThisTick += done;
+        this.restored += done;
+        return done;
+    }
+    
+    /**
+     * Clears journal and calls finish callback.
+     */
+    void finish() {
+        this.journal.clear();
+        this.cursor = 0;
+        this.startTime = 0;
+        this.restored = 0;
+        this.bulkRuns = null;
+        this.bulkNext = 0;
+        this.bulkPending = 0;
+        this.patches.clear();
+        this.patchCursor = 0;
+        this.patchPending = 0;
+        this.generation++;
+        if (this.journalFile != null)
+            this.journalFile.reset();
+        Runnable callback = this.onFinished;
+        this.onFinished = null;
+        if (callback != null)
+            callback.run();
     }
 }
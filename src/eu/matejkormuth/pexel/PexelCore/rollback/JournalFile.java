@@ -0,0 +1,282 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.rollback;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import eu.matejkormuth.pexel.PexelCore.util.AtomicFiles;
+
+/**
+ * Append-only file with journal of one {@link BlockRollbacker}. Changes are appended to memory buffer on main thread
+ * and written by {@link JournalStore} in CRC checked batches, each followed by one fsync. After rollback finishes,
+ * file is truncated.
+ * <p>
+ * Batch is int length, int CRC32 and records. World record is tag 0, world slot byte and name, change record is tag
+ * 1, packed position (see {@link BlockJournal#pack(int, int, int, int)}), short type and byte data.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class JournalFile {
+    private static final int   MAGIC      = 0x5058524A; // PXRJ
+    private static final int   VERSION    = 1;
+    private static final byte  TAG_WORLD  = 0;
+    private static final byte  TAG_CHANGE = 1;
+    private static final int   MAX_WORLDS = 8;
+    
+    private final JournalStore store;
+    private final File         file;
+    private final String       name;
+    private final byte[]       header;
+    // Used only by writer thread.
+    private FileChannel        channel;
+    
+    // Names of worlds by their slot in this file.
+    private final String[]     worlds     = new String[MAX_WORLDS];
+    private int                worldCount = 0;
+    // Records, that were not handed to writer yet.
+    private byte[]             buffer     = new byte[1024];
+    private int                length     = 0;
+    
+    JournalFile(final JournalStore store, final File file, final String name) {
+        this.store = store;
+        this.file = file;
+        this.name = name;
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(name);
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            throw new RuntimeException(e);
+        }
+        this.header = bytes.toByteArray();
+    }
+    
+    public String getName() {
+        return this.name;
+    }
+    
+    public File getFile() {
+        return this.file;
+    }
+    
+    /**
+     * Appends change to memory buffer. Should be called from main thread.
+     */
+    public void append(final World world, final int x, final int y, final int z,
+            final int type, final byte data) {
+        int slot = this.worldSlot(world);
+        this.ensure(12);
+        this.buffer[this.length++] = TAG_CHANGE;
+        long position = BlockJournal.pack(slot, x, y, z);
+        for (int shift = 56; shift >= 0; shift -= 8)
+            this.buffer[this.length++] = (byte) (position >>> shift);
+        this.buffer[this.length++] = (byte) (type >>> 8);
+        this.buffer[this.length++] = (byte) type;
+        this.buffer[this.length++] = data;
+    }
+    
+    private int worldSlot(final World world) {
+        String worldName = world.getName();
+        for (int i = 0; i < this.worldCount; i++)
+            if (this.worlds[i].equals(worldName))
+                return i;
+        if (this.worldCount == MAX_WORLDS)
+            throw new IllegalStateException("Journal file can't hold more than "
+                    + MAX_WORLDS + " worlds!");
+        
+        byte[] bytes = worldName.getBytes(AtomicFiles.UTF8);
+        this.ensure(4 + bytes.length);
+        this.buffer[this.length++] = TAG_WORLD;
+        this.buffer[this.length++] = (byte) this.worldCount;
+        this.buffer[this.length++] = (byte) (bytes.length >>> 8);
+        this.buffer[this.length++] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+        this.length += bytes.length;
+        this.worlds[this.worldCount] = worldName;
+        return this.worldCount++;
+    }
+    
+    private void ensure(final int count) {
+        if (this.length + count > this.buffer.length)
+            this.buffer = Arrays.copyOf(this.buffer,
+                    Math.max(this.buffer.length * 2, this.length + count));
+    }
+    
+    /**
+     * Returns buffered records and clears buffer. Called from main thread.
+     * 
+     * @return records or null if there are none
+     */
+    byte[] takeBatch() {
+        if (this.length == 0)
+            return null;
+        byte[] batch = Arrays.copyOf(this.buffer, this.length);
+        this.length = 0;
+        return batch;
+    }
+    
+    /**
+     * Forgets all changes of this file (after they were rolled back) and truncates it. Should be called from main
+     * thread.
+     */
+    public void reset() {
+        this.length = 0;
+        Arrays.fill(this.worlds, null);
+        this.worldCount = 0;
+        this.store.truncate(this);
+    }
+    
+    /**
+     * Creates file with header. Called from writer thread.
+     */
+    void create() throws IOException {
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.channel.write(ByteBuffer.wrap(this.header));
+        this.channel.force(true);
+    }
+    
+    /**
+     * Appends specified records as one batch and syncs file. Called from writer thread.
+     */
+    void writeBatch(final byte[] batch) throws IOException {
+        this.checkOpen();
+        CRC32 crc = new CRC32();
+        crc.update(batch);
+        ByteBuffer frame = ByteBuffer.allocate(8 + batch.length);
+        frame.putInt(batch.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(batch);
+        frame.flip();
+        while (frame.hasRemaining())
+            this.channel.write(frame);
+        this.channel.force(false);
+    }
+    
+    /**
+     * Truncates file to its header. Called from writer thread.
+     */
+    void truncate() throws IOException {
+        this.checkOpen();
+        this.channel.truncate(this.header.length);
+        this.channel.position(this.header.length);
+        this.channel.force(false);
+    }
+    
+    private void checkOpen() throws IOException {
+        if (this.channel == null)
+            throw new IOException("Journal " + this.file.getName() + " is not open!");
+    }
+    
+    /**
+     * Closes file. Called from writer thread.
+     */
+    void close() throws IOException {
+        if (this.channel != null)
+            this.channel.close();
+    }
+    
+    /**
+     * Reads changes from specified journal file to new rollbacker. Batches after first torn or damaged one are
+     * ignored, as they were never synced. Must be called from main thread, because worlds are looked up.
+     * 
+     * @param file
+     *            journal file
+     * @return rollbacker with changes from file
+     * @throws IOException
+     *             if file can't be read or world of changes is not loaded
+     */
+    public static BlockRollbacker read(final File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Journal " + file.getName() + " has unknown format!");
+            BlockRollbacker rollbacker = new BlockRollbacker(in.readUTF());
+            World[] worlds = new World[MAX_WORLDS];
+            
+            while (true) {
+                byte[] batch;
+                try {
+                    int length = in.readInt();
+                    int crc = in.readInt();
+                    if (length < 0 || length > file.length())
+                        break;
+                    batch = new byte[length];
+                    in.readFully(batch);
+                    CRC32 actual = new CRC32();
+                    actual.update(batch);
+                    if ((int) actual.getValue() != crc)
+                        break;
+                } catch (EOFException e) {
+                    break;
+                }
+                
+                ByteBuffer records = ByteBuffer.wrap(batch);
+                while (records.hasRemaining()) {
+                    byte tag = records.get();
+                    if (tag == TAG_WORLD) {
+                        int slot = records.get();
+                        byte[] bytes = new byte[records.getShort() & 0xFFFF];
+                        records.get(bytes);
+                        String worldName = new String(bytes, AtomicFiles.UTF8);
+                        worlds[slot] = Bukkit.getWorld(worldName);
+                        if (worlds[slot] == null)
+                            throw new IOException("World " + worldName + " of journal "
+                                    + file.getName() + " is not loaded!");
+                    }
+                    else if (tag == TAG_CHANGE) {
+                        long position = records.getLong();
+                        World world = worlds[BlockJournal.unpackWorld(position)];
+                        if (world == null)
+                            throw new IOException("Journal " + file.getName()
+                                    + " contains change in unknown world!");
+                        rollbacker.addChange(world,
+                                BlockJournal.unpackX(position), BlockJournal.unpackY(position),
+                                BlockJournal.unpackZ(position), records.getShort() & 0xFFFF,
+                                records.get());
+                    }
+                    else {
+                        throw new IOException("Journal " + file.getName()
+                                + " contains unknown record " + tag + "!");
+                    }
+                }
+            }
+            return rollbacker;
+        }
+    }
+}
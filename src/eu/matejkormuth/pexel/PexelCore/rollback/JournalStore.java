@@ -0,0 +1,248 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.rollback;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.matejkormuth.pexel.PexelCore.core.Checkpoint;
+import eu.matejkormuth.pexel.PexelCore.core.Log;
+import eu.matejkormuth.pexel.PexelCore.util.BukkitTimer;
+
+/**
+ * Store of persistent rollback journals, one {@link JournalFile} per arena. Buffered changes of all journals are
+ * written and synced by one background thread every second, so a crash loses at most last second of changes. Journals
+ * left on disk by crash or restart are rolled back by {@link #recover()} on startup.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class JournalStore implements Checkpoint.Participant {
+    /**
+     * Interval of writing buffered changes in ticks.
+     */
+    private static final int               FLUSH_INTERVAL   = 20;
+    /**
+     * Maximum time in seconds, that shutdown waits for pending writes.
+     */
+    private static final int               SHUTDOWN_TIMEOUT = 30;
+    private static final String            EXTENSION        = ".journal";
+    
+    private final File                     directory;
+    private final Map<String, JournalFile> files            = new HashMap<String, JournalFile>();
+    private final ExecutorService          writer;
+    private final BukkitTimer              timer;
+    /**
+     * Count of writes, that failed.
+     */
+    private final AtomicInteger            failures         = new AtomicInteger();
+    
+    /**
+     * Creates new journal store in specified directory.
+     * 
+     * @param directory
+     *            directory of journal files
+     */
+    public JournalStore(final File directory) {
+        Log.partEnable("JournalStore");
+        this.directory = directory;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("JournalWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timer = new BukkitTimer(FLUSH_INTERVAL, new Runnable() {
+            @Override
+            public void run() {
+                JournalStore.this.flush();
+            }
+        });
+        this.timer.start();
+    }
+    
+    /**
+     * Rolls back all journals, that were left on disk, and deletes them. Journals, that can't be rolled back (for
+     * example because their world is not loaded yet), are kept and rolled back when their arena opens them, or their
+     * arena stays disabled. Must be called from main thread before arenas are registered.
+     */
+    public void recover() {
+        File[] files = this.directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(EXTENSION);
+            }
+        });
+        if (files == null)
+            return;
+        
+        for (File file : files) {
+            try {
+                this.replay(file);
+                if (!file.delete())
+                    Log.warn("Can't delete journal " + file.getName() + "!");
+            } catch (IOException e) {
+                Log.addProblem("Can't roll back journal " + file.getName() + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+    
+    private void replay(final File file) throws IOException {
+        BlockRollbacker rollbacker = JournalFile.read(file);
+        int changes = rollbacker.getPendingChanges();
+        if (changes == 0)
+            return;
+        
+        long start = System.currentTimeMillis();
+        rollbacker.rollback();
+        Log.info("Rolled back " + changes + " changes of unfinished arena "
+                + rollbacker.getName() + " in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+    
+    /**
+     * Opens journal file with specified name. If file with unfinished journal exists, it is rolled back first. Must be
+     * called from main thread.
+     * 
+     * @param name
+     *            name of journal (name of arena)
+     * @return opened journal file
+     * @throws IOException
+     *             if unfinished journal can't be rolled back, it is kept untouched and arena should stay disabled
+     *             until operator restores the map and deletes the journal
+     */
+    public JournalFile open(final String name) throws IOException {
+        JournalFile journal = this.files.get(name);
+        if (journal != null)
+            return journal;
+        
+        File file = new File(this.directory, name + EXTENSION);
+        if (file.exists()) {
+            try {
+                this.replay(file);
+            } catch (IOException e) {
+                throw new IOException("Can't roll back journal " + file.getAbsolutePath()
+                        + ": " + e.getMessage(), e);
+            }
+        }
+        
+        final JournalFile created = new JournalFile(this, file, name);
+        this.files.put(name, created);
+        this.write(created, new IORunnable() {
+            @Override
+            public void run() throws IOException {
+                created.create();
+            }
+        });
+        return created;
+    }
+    
+    /**
+     * Hands buffered changes of all journals to writer thread. Should be called from main thread.
+     */
+    public void flush() {
+        for (final JournalFile journal : this.files.values()) {
+            final byte[] batch = journal.takeBatch();
+            if (batch != null)
+                this.write(journal, new IORunnable() {
+                    @Override
+                    public void run() throws IOException {
+                        journal.writeBatch(batch);
+                    }
+                });
+        }
+    }
+    
+    void truncate(final JournalFile journal) {
+        this.write(journal, new IORunnable() {
+            @Override
+            public void run() throws IOException {
+                journal.truncate();
+            }
+        });
+    }
+    
+    private void write(final JournalFile journal, final IORunnable task) {
+        if (this.writer.isShutdown())
+            return;
+        this.writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    JournalStore.this.failures.incrementAndGet();
+                    Log.addProblem("Can't write journal " + journal.getName() + ": "
+                            + e.toString());
+                }
+            }
+        });
+    }
+    
+    /**
+     * Stops periodic writing, writes all buffered changes and returns writer, that waits for them and closes files.
+     * Journals of arenas, that were not rolled back, stay on disk and are rolled back on next start. Should be called
+     * from main thread when plugin is disabling, after running rollbacks finished.
+     */
+    @Override
+    public Checkpoint.Writer snapshot() {
+        this.timer.stop();
+        this.failures.set(0);
+        this.flush();
+        for (final JournalFile journal : this.files.values())
+            this.write(journal, new IORunnable() {
+                @Override
+                public void run() throws IOException {
+                    journal.close();
+                }
+            });
+        this.files.clear();
+        this.writer.shutdown();
+        Log.partDisable("JournalStore");
+        
+        return new Checkpoint.Writer() {
+            @Override
+            public void write() throws Exception {
+                ExecutorService writer = JournalStore.this.writer;
+                if (!writer.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS))
+                    throw new TimeoutException("Not all rollback journals were written in "
+                            + SHUTDOWN_TIMEOUT + " seconds!");
+                if (JournalStore.this.failures.get() > 0)
+                    throw new IOException(JournalStore.this.failures.get()
+                            + " writes of rollback journals failed!");
+            }
+        };
+    }
+    
+    private interface IORunnable {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,176 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.rollback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.matejkormuth.pexel.PexelCore.core.Log;
+import eu.matejkormuth.pexel.PexelCore.util.BukkitTimer;
+
+/**
+ * Global scheduler of async block rollbacks. Each tick it measures how late the tick is and gives rollbacks the rest
+ * of time budget, which is shared fairly in small batches between all running rollbacks.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public class RollbackScheduler implements Runnable {
+    /**
+     * Length of one tick in nanoseconds.
+     */
+    private static final long            TICK_TIME  = 50L * 1000 * 1000;
+    /**
+     * Maximum time in nanoseconds spent by rollbacks in one tick.
+     */
+    private static final long            MAX_BUDGET = 15L * 1000 * 1000;
+    /**
+     * Minimum time in nanoseconds spent by rollbacks in one tick, so they always make progress.
+     */
+    private static final long            MIN_BUDGET = 1L * 1000 * 1000;
+    /**
+     * Count of changes reverted by one rollback before next one gets its turn.
+     */
+    private static final int             BATCH      = 32;
+    /**
+     * Count of threads reading and comparing arena snapshots.
+     */
+    private static final int             WORKERS    = 2;
+    
+    private final List<BlockRollbacker> jobs       = new ArrayList<BlockRollbacker>();
+    private final BukkitTimer            timer      = new BukkitTimer(1, this);
+    private final ExecutorService        worker;
+    private boolean                      running    = false;
+    // Start of last tick (nanoTime) or 0.
+    private long                         lastTick   = 0;
+    // Index of rollback, that gets first batch in next round.
+    private int                          next       = 0;
+    
+    public RollbackScheduler() {
+        Log.partEnable("RollbackScheduler");
+        this.worker = Executors.newFixedThreadPool(WORKERS, new ThreadFactory() {
+            private final AtomicInteger number = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("RollbackWorker-" + this.number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Returns executor used for disk and compare work of rollbacks, like taking and reading {@link ArenaSnapshot}s.
+     * 
+     * @return executor
+     */
+    public ExecutorService getWorker() {
+        return this.worker;
+    }
+    
+    /**
+     * Adds specified rollback to scheduler. Should be called from main thread.
+     * 
+     * @param rollbacker
+     *            rollbacker to run
+     */
+    void submit(final BlockRollbacker rollbacker) {
+        if (!this.jobs.contains(rollbacker))
+            this.jobs.add(rollbacker);
+        if (!this.running) {
+            this.running = true;
+            this.lastTick = 0;
+            this.timer.start();
+        }
+    }
+    
+    /**
+     * Returns unmodifiable list of running rollbacks. Use {@link BlockRollbacker#getProgress()} and
+     * {@link BlockRollbacker#getEta()} for their progress.
+     * 
+     * @return running rollbacks
+     */
+    public List<BlockRollbacker> getRollbacks() {
+        return Collections.unmodifiableList(this.jobs);
+    }
+    
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        long budget = MAX_BUDGET;
+        if (this.lastTick != 0) {
+            // Time, that the server is behind.
+            long lag = now - this.lastTick - TICK_TIME;
+            if (lag > 0)
+                budget = Math.max(MIN_BUDGET, MAX_BUDGET - lag);
+        }
+        this.lastTick = now;
+        long deadline = now + budget;
+        
+        for (BlockRollbacker job : this.jobs)
+            job.newTick();
+        
+        // Round robin in batches until time is up or nothing can be reverted in this tick.
+        boolean progress = true;
+        while (progress && !this.jobs.isEmpty() && System.nanoTime() < deadline) {
+            progress = false;
+            for (int i = 0; i < this.jobs.size() && System.nanoTime() < deadline; i++) {
+                if (this.next >= this.jobs.size())
+                    this.next = 0;
+                BlockRollbacker job = this.jobs.get(this.next);
+                if (job.step(BATCH) > 0)
+                    progress = true;
+                
+                if (job.getPendingChanges() == 0) {
+                    this.jobs.remove(this.next);
+                    job.finish();
+                }
+                else {
+                    this.next++;
+                }
+            }
+        }
+        
+        if (this.jobs.isEmpty()) {
+            this.timer.stop();
+            this.running = false;
+        }
+    }
+    
+    /**
+     * Finishes all running rollbacks immediately. Should be called when plugin is disabling.
+     */
+    public void shutdown() {
+        this.timer.stop();
+        this.running = false;
+        List<BlockRollbacker> jobs = new ArrayList<BlockRollbacker>(this.jobs);
+        this.jobs.clear();
+        for (BlockRollbacker job : jobs)
+            job.rollback();
+        this.worker.shutdown();
+        Log.partDisable("RollbackScheduler");
+    }
+}
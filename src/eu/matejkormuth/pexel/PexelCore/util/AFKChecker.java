@@ -2,23 +2,28 @@ package eu.matejkormuth.pexel.PexelCore.util;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
-import org.bukkit.Location;
 import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerMoveEvent;
 
+import eu.matejkormuth.pexel.PexelCore.Pexel;
+import eu.matejkormuth.pexel.PexelCore.core.MoveHandler;
+import eu.matejkormuth.pexel.PexelCore.core.MoveType;
 import eu.matejkormuth.pexel.PexelCore.core.PlayerHolder;
 
 /**
- * Class that is used for checking when is player AFK.
+ * Class that is used for checking when is player AFK. Player is not AFK only if he changes his position, head
+ * rotations are ignored.
  */
-public class AFKChecker {
-    private final int                   time;
+public class AFKChecker implements MoveHandler {
+    private final long                  time;
     private final BukkitTimer           timer;
     private final PlayerHolder          playerHolder;
-    private final Map<Player, AFKEntry> entries = new HashMap<Player, AFKEntry>();
+    private final Map<UUID, AFKEntry>   entries = new HashMap<UUID, AFKEntry>();
     
     public AFKChecker(final int seconds, final PlayerHolder playerHolder) {
-        this.time = seconds;
+        this.time = seconds * 1000L;
         this.playerHolder = playerHolder;
         this.timer = new BukkitTimer(20, new Runnable() {
             @Override
@@ -26,44 +31,52 @@ public class AFKChecker {
                 AFKChecker.this.check();
             }
         });
-        this.timer.start();
+        this.start();
     }
     
     protected void check() {
         long checkTime = System.currentTimeMillis();
         
         for (Player p : this.playerHolder.getPlayers()) {
-            AFKEntry entry = this.entries.get(p);
+            AFKEntry entry = this.entries.get(p.getUniqueId());
+            if (entry == null) {
+                entry = new AFKEntry();
+                entry.lastMovementTime = checkTime;
+                this.entries.put(p.getUniqueId(), entry);
+            }
             
             // Check for kicks
-            if (System.currentTimeMillis() > entry.lastMovementTime + this.time) {
+            if (checkTime > entry.lastMovementTime + this.time) {
                 p.kickPlayer("You were kicked, because you were AFK. If it was during a competitive match, you migth be penalized.");
-                this.entries.remove(p);
-                continue;
+                this.entries.remove(p.getUniqueId());
             }
             else if (!p.isOnline()) {
-                this.entries.remove(p);
-            }
-            
-            // Update last movement
-            if (!entry.lastLoc.equals(p.getLocation())) {
-                entry.lastLoc = p.getLocation();
-                entry.lastMovementTime = checkTime;
+                this.entries.remove(p.getUniqueId());
             }
         }
     }
     
+    @Override
+    public void onPlayerMove(final PlayerMoveEvent event, final MoveType type) {
+        AFKEntry entry = this.entries.get(event.getPlayer().getUniqueId());
+        if (entry != null)
+            entry.lastMovementTime = System.currentTimeMillis();
+    }
+    
     public void start() {
+        // Do not register twice, if already started.
+        Pexel.getMovePipeline().unregister(this);
+        Pexel.getMovePipeline().register(MoveType.ROTATION, this);
         this.timer.start();
     }
     
     public void reset() {
+        Pexel.getMovePipeline().unregister(this);
         this.entries.clear();
         this.timer.stop();
     }
     
     public class AFKEntry {
-        public Location lastLoc;
-        public long     lastMovementTime;
+        public long lastMovementTime;
     }
 }
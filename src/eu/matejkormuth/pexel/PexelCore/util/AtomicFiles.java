@@ -0,0 +1,108 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Crash-safe file writes. Data are written to temporary file in the same directory, forced to disk and then atomically
+ * renamed over the target, so the target contains either old or new data, never partially written file.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public final class AtomicFiles {
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private AtomicFiles() {
+    }
+    
+    /**
+     * Atomically replaces content of specified file with specified string encoded in UTF-8.
+     * 
+     * @param target
+     *            file to write
+     * @param content
+     *            new content
+     * @throws IOException
+     */
+    public static void write(final File target, final String content) throws IOException {
+        AtomicFiles.write(target, content.getBytes(AtomicFiles.UTF8));
+    }
+    
+    /**
+     * Atomically replaces content of specified file with specified bytes.
+     * 
+     * @param target
+     *            file to write
+     * @param data
+     *            new content
+     * @throws IOException
+     */
+    public static void write(final File target, final byte[] data) throws IOException {
+        File directory = target.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create directory " + directory.getPath());
+        
+        // Unique name, so concurrent writes of one file don't share temporary file.
+        File temp = File.createTempFile(target.getName() + ".", ".tmp", directory);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            
+            try {
+                Files.move(temp.toPath(), target.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (temp.exists() && !temp.delete())
+                temp.deleteOnExit();
+        }
+        AtomicFiles.syncDirectory(directory);
+    }
+    
+    /**
+     * Forces directory entry changes (the rename) to disk. Not supported on some platforms, so failures are ignored.
+     */
+    private static void syncDirectory(final File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform.
+        }
+    }
+}
@@ -19,8 +19,12 @@
 package eu.matejkormuth.pexel.PexelCore.util;
 
 import org.bukkit.Location;
+import org.bukkit.block.Block;
 import org.bukkit.material.MaterialData;
 
+import eu.matejkormuth.pexel.PexelCore.core.BlockVisitor;
+import eu.matejkormuth.pexel.PexelCore.core.Region;
+
 /**
  * Class used for detecting block patterns.
  */
@@ -63,6 +67,7 @@ public class BlockPattern {
      *            location of nachor block
      * @return <b>true</b> if match found, <b>false</b> otherwise
      */
+    @SuppressWarnings("deprecation")
     public boolean match(final Location location) {
         for (int x = 0; x < this.pattern.length; x++) {
             for (int y = 0; y < this.pattern[0].length; y++) {
@@ -71,13 +76,39 @@ public class BlockPattern {
                     int absY = location.getBlockY() - this.anchorY + y;
                     int absZ = location.getBlockZ() - this.anchorZ + z;
                     
-                    if (this.pattern[x][y][z] != null) {
-                        if (!location.getWorld().getBlockAt(absX, absY, absZ).equals(
-                                this.pattern[x][y][z])) { return false; }
+                    MaterialData expected = this.pattern[x][y][z];
+                    if (expected != null) {
+                        Block block = location.getWorld().getBlockAt(absX, absY, absZ);
+                        if (block.getType() != expected.getItemType()
+                                || block.getData() != expected.getData()) { return false; }
                     }
                 }
             }
         }
         return true;
     }
+    
+    /**
+     * Finds first anchor block in specified region, where this pattern matches. Region is visited chunk by chunk, so
+     * memory used does not depend on size of region. Must be called from main thread.
+     * 
+     * @param region
+     *            region to search
+     * @return location of anchor block or <b>null</b> if pattern was not found
+     */
+    public Location find(final Region region) {
+        final Location[] found = new Location[1];
+        region.forEachBlock(new BlockVisitor() {
+            @Override
+            public boolean visit(final Block block) {
+                Location location = block.getLocation();
+                if (BlockPattern.this.match(location)) {
+                    found[0] = location;
+                    return false;
+                }
+                return true;
+            }
+        });
+        return found[0];
+    }
 }
@@ -18,85 +18,371 @@
 // @formatter:on
 package eu.matejkormuth.pexel.PexelCore.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 import eu.matejkormuth.pexel.PexelCore.core.Log;
 import eu.matejkormuth.pexel.PexelCore.core.Paths;
 
 /**
- * Class used for caching data.
+ * Disk-backed typed key-value cache. Each changed key is appended to cache file as one record, so commit writes only
+ * changes. Values are decoded lazily on first access by {@link Codec}. When most of file are old records, file is
+ * compacted.
+ * <p>
+ * Record format is <code>[int crc][int key length][int value length][key][value]</code>, value length -1 marks
+ * removed key. Torn records at end of file (after crash) are cut off when loading.
+ * 
+ * @param <V>
+ *            type of values
  */
-public class CacheHelper {
-    private Map<String, Object> cache = new HashMap<>();
-    private final String        name;
-    private boolean             nr    = false;
+public class CacheHelper<V> {
+    private static final int                  MAGIC       = 0x50584B56;          // PXKV
+    private static final int                  VERSION     = 1;
+    private static final int                  HEADER_SIZE = 8;
+    private static final int                  RECORD_SIZE = 12;
+    /**
+     * File is compacted on commit when it is bigger than this and less than half of it is live data.
+     */
+    private static final long                 COMPACT_MIN = 64 * 1024;
+    
+    /**
+     * Committed values. Values are kept encoded until they are read.
+     */
+    private final Map<String, Entry<V>>       cache       = new HashMap<String, Entry<V>>();
+    /**
+     * Keys changed since last commit, null value means removed key.
+     */
+    private final Map<String, V>              pending     = new LinkedHashMap<String, V>();
+    private final String                      name;
+    private final Codec<V>                    codec;
+    private final File                        file;
+    private boolean                           nr          = false;
+    /**
+     * Whether could not be partially written records cut off, so file must be rewritten on next commit.
+     */
+    private boolean                           torn        = false;
+    private long                              liveBytes   = 0;
+    
+    /**
+     * Opens cache with specified name, which values are encoded with specified codec.
+     * 
+     * @param name
+     *            name of cache
+     * @param codec
+     *            codec of values
+     */
+    public CacheHelper(final String name, final Codec<V> codec) {
+        this(name, codec, new File(Paths.cache(name)));
+    }
     
-    public CacheHelper(final String name) {
+    /**
+     * Opens cache with specified name stored in specified file.
+     */
+    CacheHelper(final String name, final Codec<V> codec, final File file) {
         this.name = name;
+        this.codec = codec;
+        this.file = file;
         try {
             this.load();
-        } catch (ClassNotFoundException | IOException e) {
+        } catch (IOException e) {
             this.nr = true;
-            Log.severe("Cache broken!");
-            e.printStackTrace();
+            this.cache.clear();
+            this.liveBytes = 0;
+            Log.severe("Cache " + this.name + " broken! " + e.toString());
         }
     }
     
+    /**
+     * Returns true if the cache file could not be read and cache is empty.
+     */
     public boolean needsRebuild() {
         return this.nr;
     }
     
-    @SuppressWarnings("unchecked")
-    private void load() throws FileNotFoundException, IOException,
-            ClassNotFoundException {
-        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(new File(
-                Paths.cache(this.name))));
-        Object object = ois.readObject();
-        ois.close();
-        if (object instanceof HashMap<?, ?>)
-            this.cache = (HashMap<String, Object>) object;
-        else
-            throw new RuntimeException("Broken cache file! Can't read data!");
+    private void load() throws IOException {
+        if (!this.file.exists())
+            return;
+        
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC
+                    || raf.readInt() != VERSION)
+                throw new IOException("Unknown cache format");
+            
+            long position = HEADER_SIZE;
+            long length = raf.length();
+            CRC32 crc = new CRC32();
+            while (position + RECORD_SIZE <= length) {
+                raf.seek(position);
+                int checksum = raf.readInt();
+                int keyLength = raf.readInt();
+                int valueLength = raf.readInt();
+                long size = RECORD_SIZE + keyLength + Math.max(valueLength, 0);
+                if (keyLength < 0 || valueLength < -1 || position + size > length)
+                    break;
+                
+                byte[] key = new byte[keyLength];
+                byte[] value = new byte[Math.max(valueLength, 0)];
+                raf.readFully(key);
+                raf.readFully(value);
+                crc.reset();
+                crc.update(keyLength >>> 24);
+                crc.update(keyLength >>> 16);
+                crc.update(keyLength >>> 8);
+                crc.update(keyLength);
+                crc.update(key);
+                crc.update(value);
+                if ((int) crc.getValue() != checksum)
+                    break;
+                
+                String k = new String(key, AtomicFiles.UTF8);
+                Entry<V> old = valueLength == -1 ? this.cache.remove(k) : this.cache.put(
+                        k, new Entry<V>(value, (int) size));
+                if (old != null)
+                    this.liveBytes -= old.size;
+                if (valueLength != -1)
+                    this.liveBytes += size;
+                position += size;
+            }
+            
+            if (position < length) {
+                Log.warn("Cache " + this.name + " has torn tail, cutting "
+                        + (length - position) + " bytes.");
+                raf.setLength(position);
+            }
+        }
     }
     
     public String getName() {
         return this.name;
     }
     
+    /**
+     * Returns size of cache file in bytes.
+     * 
+     * @return size of file
+     */
     public int getSize() {
-        return (int) new File(Paths.cache(this.name)).length();
+        return (int) this.file.length();
+    }
+    
+    /**
+     * Returns size of live (not overwritten) records in bytes.
+     * 
+     * @return size of live data
+     */
+    public synchronized long getLiveSize() {
+        return this.liveBytes;
     }
     
-    public void clear() {
-        this.cache.clear();
+    /**
+     * Returns count of keys in cache.
+     * 
+     * @return count of keys
+     */
+    public synchronized int getCount() {
+        int count = this.cache.size();
+        for (Map.Entry<String, V> entry : this.pending.entrySet())
+            if (this.cache.containsKey(entry.getKey()) != (entry.getValue() != null))
+                count += entry.getValue() == null ? -1 : 1;
+        return count;
     }
     
-    public void put(final String key, final Object value) {
-        this.cache.put(key, value);
+    /**
+     * Removes all keys. Removal is written on next commit.
+     */
+    public synchronized void clear() {
+        for (String key : this.cache.keySet())
+            this.pending.put(key, null);
+        for (Map.Entry<String, V> entry : this.pending.entrySet())
+            entry.setValue(null);
     }
     
-    @SuppressWarnings("unchecked")
-    public <T> T getTyped(final String key) {
-        return (T) this.cache.get(key);
+    public synchronized void put(final String key, final V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Value can't be null, use remove().");
+        this.pending.put(key, value);
     }
     
-    public Object get(final String key) {
-        return this.cache.get(key);
+    public synchronized void remove(final String key) {
+        this.pending.put(key, null);
+    }
+    
+    /**
+     * Returns value of specified key or null. Value is decoded on first access.
+     * 
+     * @param key
+     *            key
+     * @return value or null
+     */
+    public synchronized V get(final String key) {
+        if (this.pending.containsKey(key))
+            return this.pending.get(key);
+        
+        Entry<V> entry = this.cache.get(key);
+        if (entry == null)
+            return null;
+        if (entry.data != null) {
+            try {
+                entry.value = this.codec.decode(new DataInputStream(
+                        new ByteArrayInputStream(entry.data)));
+                entry.data = null;
+            } catch (IOException e) {
+                Log.warn("Can't decode key " + key + " of cache " + this.name + ": "
+                        + e.toString());
+                return null;
+            }
+        }
+        return entry.value;
+    }
+    
+    /**
+     * Appends changed keys to cache file and forces it to disk. Compacts file when it contains too much old records.
+     * 
+     * @throws IOException
+     */
+    public synchronized void commit() throws IOException {
+        if (this.pending.isEmpty())
+            return;
+        
+        Map<String, byte[]> encoded = new LinkedHashMap<String, byte[]>(
+                this.pending.size() * 2);
+        for (Map.Entry<String, V> entry : this.pending.entrySet())
+            encoded.put(entry.getKey(), this.encode(entry.getValue()));
+        
+        if (this.nr || this.torn || !this.file.exists()) {
+            // Unreadable, damaged or missing file is replaced by new one.
+            this.applyPending(encoded);
+            this.compact();
+            this.nr = false;
+            this.torn = false;
+            return;
+        }
+        
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        for (Map.Entry<String, byte[]> entry : encoded.entrySet())
+            this.writeRecord(out, entry.getKey(), entry.getValue());
+        
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            long length = raf.length();
+            try {
+                raf.seek(length);
+                raf.write(records.toByteArray());
+                raf.getFD().sync();
+            } catch (IOException e) {
+                // Cut off partially written records, otherwise records of next commits would be lost after them.
+                try {
+                    raf.setLength(length);
+                } catch (IOException e1) {
+                    this.torn = true;
+                }
+                throw e;
+            }
+        }
+        this.applyPending(encoded);
+        
+        long size = this.file.length();
+        if (size > COMPACT_MIN && this.liveBytes * 2 < size)
+            this.compact();
     }
     
-    public void commit() throws FileNotFoundException, IOException {
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(new File(
-                Paths.cache(this.name))));
-        oos.writeObject(this.cache);
-        oos.close();
+    /**
+     * Atomically rewrites cache file with only live records.
+     * 
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                (int) (this.liveBytes + HEADER_SIZE));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (Map.Entry<String, Entry<V>> entry : this.cache.entrySet())
+            this.writeRecord(out, entry.getKey(), entry.getValue().encode(this.codec));
+        AtomicFiles.write(this.file, bytes.toByteArray());
     }
     
+    private void applyPending(final Map<String, byte[]> encoded) {
+        for (Map.Entry<String, V> entry : this.pending.entrySet()) {
+            Entry<V> old;
+            if (entry.getValue() == null)
+                old = this.cache.remove(entry.getKey());
+            else {
+                int size = RECORD_SIZE + entry.getKey().getBytes(AtomicFiles.UTF8).length
+                        + encoded.get(entry.getKey()).length;
+                old = this.cache.put(entry.getKey(), new Entry<V>(entry.getValue(), size));
+                this.liveBytes += size;
+            }
+            if (old != null)
+                this.liveBytes -= old.size;
+        }
+        this.pending.clear();
+    }
+    
+    private byte[] encode(final V value) {
+        if (value == null)
+            return null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            this.codec.encode(value, new DataOutputStream(bytes));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't encode value", e);
+        }
+    }
+    
+    private void writeRecord(final DataOutputStream out, final String key,
+            final byte[] value) throws IOException {
+        byte[] k = key.getBytes(AtomicFiles.UTF8);
+        CRC32 crc = new CRC32();
+        crc.update(k.length >>> 24);
+        crc.update(k.length >>> 16);
+        crc.update(k.length >>> 8);
+        crc.update(k.length);
+        crc.update(k);
+        if (value != null)
+            crc.update(value);
+        out.writeInt((int) crc.getValue());
+        out.writeInt(k.length);
+        out.writeInt(value == null ? -1 : value.length);
+        out.write(k);
+        if (value != null)
+            out.write(value);
+    }
+    
+    /**
+     * Committed value, either still encoded or already decoded.
+     */
+    private static final class Entry<V> {
+        private byte[]    data;
+        private V         value;
+        private final int size;
+        
+        private Entry(final byte[] data, final int size) {
+            this.data = data;
+            this.size = size;
+        }
+        
+        private Entry(final V value, final int size) {
+            this.value = value;
+            this.size = size;
+        }
+        
+        private byte[] encode(final Codec<V> codec) throws IOException {
+            if (this.data != null)
+                return this.data;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            codec.encode(this.value, new DataOutputStream(bytes));
+            return bytes.toByteArray();
+        }
+    }
 }
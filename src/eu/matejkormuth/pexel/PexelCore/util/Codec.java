@@ -0,0 +1,55 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary encoding of values of one type. Used instead of java serialization, so changes of classes don't break stored
+ * data.
+ * 
+ * @author Mato Kormuth
+ * 
+ * @param <T>
+ *            type of values
+ */
+public interface Codec<T> {
+    /**
+     * Writes specified value to specified output.
+     * 
+     * @param value
+     *            value to write
+     * @param out
+     *            output
+     * @throws IOException
+     */
+    public void encode(T value, DataOutput out) throws IOException;
+    
+    /**
+     * Reads value from specified input.
+     * 
+     * @param in
+     *            input
+     * @return read value
+     * @throws IOException
+     */
+    public T decode(DataInput in) throws IOException;
+}
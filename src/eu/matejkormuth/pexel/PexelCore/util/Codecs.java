@@ -0,0 +1,175 @@
+// @formatter:off
+/*
+ * Pexel Project - Minecraft minigame server platform. 
+ * Copyright (C) 2014 Matej Kormuth <http://www.matejkormuth.eu>
+ * 
+ * This file is part of Pexel.
+ * 
+ * Pexel is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Pexel is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ */
+// @formatter:on
+package eu.matejkormuth.pexel.PexelCore.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link Codec}s of common types.
+ * 
+ * @author Mato Kormuth
+ * 
+ */
+public final class Codecs {
+    private Codecs() {
+    }
+    
+    public static final Codec<String>  STRING  = new Codec<String>() {
+                                                   @Override
+                                                   public void encode(final String value,
+                                                           final DataOutput out)
+                                                           throws IOException {
+                                                       out.writeUTF(value);
+                                                   }
+        
+                                                   @Override
+                                                   public String decode(final DataInput in)
+                                                           throws IOException {
+                                                       return in.readUTF();
+                                                   }
+                                               };
+    
+    public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+                                                   @Override
+                                                   public void encode(final Integer value,
+                                                           final DataOutput out)
+                                                           throws IOException {
+                                                       out.writeInt(value);
+                                                   }
+        
+                                                   @Override
+                                                   public Integer decode(final DataInput in)
+                                                           throws IOException {
+                                                       return in.readInt();
+                                                   }
+                                               };
+    
+    public static final Codec<Long>    LONG    = new Codec<Long>() {
+                                                   @Override
+                                                   public void encode(final Long value,
+                                                           final DataOutput out)
+                                                           throws IOException {
+                                                       out.writeLong(value);
+                                                   }
+        
+                                                   @Override
+                                                   public Long decode(final DataInput in)
+                                                           throws IOException {
+                                                       return in.readLong();
+                                                   }
+                                               };
+    
+    public static final Codec<Double>  DOUBLE  = new Codec<Double>() {
+                                                   @Override
+                                                   public void encode(final Double value,
+                                                           final DataOutput out)
+                                                           throws IOException {
+                                                       out.writeDouble(value);
+                                                   }
+        
+                                                   @Override
+                                                   public Double decode(final DataInput in)
+                                                           throws IOException {
+                                                       return in.readDouble();
+                                                   }
+                                               };
+    
+    public static final Codec<Boolean> BOOLEAN = new Codec<Boolean>() {
+                                                   @Override
+                                                   public void encode(final Boolean value,
+                                                           final DataOutput out)
+                                                           throws IOException {
+                                                       out.writeBoolean(value);
+                                                   }
+        
+                                                   @Override
+                                                   public Boolean decode(final DataInput in)
+                                                           throws IOException {
+                                                       return in.readBoolean();
+                                                   }
+                                               };
+    
+    public static final Codec<UUID>    UUID    = new Codec<UUID>() {
+                                                   @Override
+                                                   public void encode(final UUID value,
+                                                           final DataOutput out)
+                                                           throws IOException {
+                                                       out.writeLong(value.getMostSignificantBits());
+                                                       out.writeLong(value.getLeastSignificantBits());
+                                                   }
+        
+                                                   @Override
+                                                   public UUID decode(final DataInput in)
+                                                           throws IOException {
+                                                       return new UUID(in.readLong(),
+                                                               in.readLong());
+                                                   }
+                                               };
+    
+    public static final Codec<byte[]>  BYTES   = new Codec<byte[]>() {
+                                                   @Override
+                                                   public void encode(final byte[] value,
+                                                           final DataOutput out)
+                                                           throws IOException {
+                                                       out.writeInt(value.length);
+                                                       out.write(value);
+                                                   }
+        
+                                                   @Override
+                                                   public byte[] decode(final DataInput in)
+                                                           throws IOException {
+                                                       byte[] value = new byte[in.readInt()];
+                                                       in.readFully(value);
+                                                       return value;
+                                                   }
+                                               };
+    
+    /**
+     * Returns codec of lists, which elements are encoded by specified codec.
+     * 
+     * @param element
+     *            codec of elements
+     * @return codec of lists
+     */
+    public static <T> Codec<List<T>> list(final Codec<T> element) {
+        return new Codec<List<T>>() {
+            @Override
+            public void encode(final List<T> value, final DataOutput out)
+                    throws IOException {
+                out.writeInt(value.size());
+                for (T item : value)
+                    element.encode(item, out);
+            }
+            
+            @Override
+            public List<T> decode(final DataInput in) throws IOException {
+                int size = in.readInt();
+                List<T> value = new ArrayList<T>(size);
+                for (int i = 0; i < size; i++)
+                    value.add(element.decode(in));
+                return value;
+            }
+        };
+    }
+}
@@ -20,15 +20,24 @@ package eu.matejkormuth.pexel.PexelCore.util;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Class used for translations. Taken from project STARVING.
+ * <p>
+ * Translations are stored in immutable map per language, which is replaced as whole on reload, so lookups don't need
+ * any locks. Phrases are parsed to {@link Template}s when loading.
  * 
  * @see Lang#getTranslation(String);
  * 
@@ -37,15 +46,19 @@ public class Lang {
     /**
      * Default language
      */
-    private static final String        DEFAULT_LANGUAGE = "en";
+    private static final String                                DEFAULT_LANGUAGE = "en";
     /**
-     * Map containing all translations in formate {lang}_{phrase} = translatedPhrase;
+     * Map containing all translations in format {lang} -> {phrase} -> translatedPhrase;
      */
-    private static Map<String, String> translations     = Collections.synchronizedMap(new HashMap<String, String>());
+    private static volatile Map<String, Map<String, Template>> translations     = Collections.emptyMap();
+    /**
+     * Reusable builders for rendering templates.
+     */
+    private static final ThreadLocal<StringBuilder>            builders         = new Builders();
     /**
      * Singleton instance.
      */
-    private volatile static Lang       instance;
+    private volatile static Lang                               instance;
     
     /**
      * Konstruktor na singleton.
@@ -55,42 +68,82 @@ public class Lang {
     }
     
     /**
-     * Loads the translations to memory.
+     * Loads the translations to memory. Files are read in parallel and all translations are replaced at once.
      */
     public static void loadTranslations(final String dataFolder) {
         System.out.println("[Translations] Nacitavam preklady...");
         //Get the files with translations.
         File folder = new File(dataFolder + "/lang/");
         File[] listOfFiles = folder.listFiles();
+        if (listOfFiles == null)
+            return;
         
-        //For each file
-        for (File file : listOfFiles) {
+        List<File> files = new ArrayList<File>();
+        for (File file : listOfFiles)
             //If its a lang file.
-            if (file.isFile() && file.getName().endsWith("lang")) {
-                if (file.getName().contains(".")) {
-                    System.out.println("[Translations] Found translation "
-                            + file.getName());
-                    //Read the file.
-                    String translationLang = file.getName().split("\\.")[0];
-                    //Reader
-                    BufferedReader reader = null;
-                    try {
-                        reader = new BufferedReader(new FileReader(file));
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            //Real line, split by = and put into translations map.
-                            String[] translation = line.split("=");
-                            translations.put(translationLang + "_" + translation[0],
-                                    translation[1]);
-                        }
-                        //Close the reader.
-                        reader.close();
-                    } catch (FileNotFoundException e) {
-                    } catch (IOException e) {
-                    }
+            if (file.isFile() && file.getName().endsWith("lang")
+                    && file.getName().contains("."))
+                files.add(file);
+        if (files.isEmpty())
+            return;
+        
+        ExecutorService readers = Executors.newFixedThreadPool(Math.min(files.size(),
+                Runtime.getRuntime().availableProcessors()));
+        List<Future<Map<String, Template>>> results = new ArrayList<Future<Map<String, Template>>>(
+                files.size());
+        for (final File file : files)
+            results.add(readers.submit(new Callable<Map<String, Template>>() {
+                @Override
+                public Map<String, Template> call() throws IOException {
+                    return Lang.readFile(file);
                 }
+            }));
+        readers.shutdown();
+        
+        Map<String, Map<String, Template>> loaded = new HashMap<String, Map<String, Template>>();
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            String translationLang = file.getName().split("\\.")[0];
+            try {
+                Map<String, Template> phrases = results.get(i).get();
+                System.out.println("[Translations] Found translation " + file.getName());
+                Map<String, Template> language = loaded.get(translationLang);
+                if (language == null)
+                    loaded.put(translationLang, phrases);
+                else
+                    language.putAll(phrases);
+            } catch (ExecutionException e) {
+                System.out.println("[Translations] Can't read " + file.getName() + ": "
+                        + e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        
+        for (Map.Entry<String, Map<String, Template>> entry : loaded.entrySet())
+            entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+        Lang.translations = Collections.unmodifiableMap(loaded);
+    }
+    
+    private static Map<String, Template> readFile(final File file) throws IOException {
+        Map<String, Template> phrases = new HashMap<String, Template>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                //Real line, split by = and put into translations map.
+                int separator = line.indexOf('=');
+                if (separator > 0)
+                    phrases.put(line.substring(0, separator),
+                            Template.parse(line.substring(separator + 1)));
             }
         }
+        return phrases;
+    }
+    
+    private static Template find(final String language, final String phrase) {
+        Map<String, Template> phrases = Lang.translations.get(language);
+        return phrases == null ? null : phrases.get(phrase);
     }
     
     /**
@@ -101,14 +154,7 @@ public class Lang {
      * @return translated phrase or phrase code if the translation was not found
      */
     public static String getTranslation(final String phrase) {
-        synchronized (Lang.translations) {
-            if (Lang.translations.containsKey(DEFAULT_LANGUAGE + "_" + phrase)) {
-                return Lang.translations.get(DEFAULT_LANGUAGE + "_" + phrase);
-            }
-            else {
-                return DEFAULT_LANGUAGE + "_" + phrase;
-            }
-        }
+        return Lang.getTranslation(phrase, DEFAULT_LANGUAGE);
     }
     
     /**
@@ -122,18 +168,7 @@ public class Lang {
      */
     public static String getTranslation(final String phrase,
             final Map<String, String> vars) {
-        String translation = "";
-        synchronized (Lang.translations) {
-            //Get translation
-            translation = Lang.translations.get(DEFAULT_LANGUAGE + "_" + phrase);
-        }
-        
-        //Replace variabiles
-        for (String variabile : vars.keySet()) {
-            translation = translation.replace("{" + variabile + "}", vars.get(variabile));
-        }
-        
-        return translation;
+        return Lang.getTranslation(phrase, DEFAULT_LANGUAGE, vars);
     }
     
     /**
@@ -146,14 +181,10 @@ public class Lang {
      * @return translated phrase or phrase code if the translation was not found
      */
     public static String getTranslation(final String phrase, final String language) {
-        synchronized (Lang.translations) {
-            if (Lang.translations.containsKey(language + "_" + phrase)) {
-                return Lang.translations.get(language + "_" + phrase);
-            }
-            else {
-                return language + "_" + phrase;
-            }
-        }
+        Template template = Lang.find(language, phrase);
+        if (template == null)
+            return language + "_" + phrase;
+        return template.getText();
     }
     
     /**
@@ -165,22 +196,14 @@ public class Lang {
      *            language code (ISO 3166-1 Alpha-2 standard, two-letter code)
      * @param vars
      *            map of variabiles to replace (key is variabile, value is replacement
-     * @return translated phrase
+     * @return translated phrase or phrase code if the translation was not found
      */
     public static String getTranslation(final String phrase, final String language,
             final Map<String, String> vars) {
-        String translation = "";
-        synchronized (Lang.translations) {
-            //Get translation
-            translation = Lang.translations.get(language + "_" + phrase);
-        }
-        
-        //Replace variabiles
-        for (String variabile : vars.keySet()) {
-            translation = translation.replace("{" + variabile + "}", vars.get(variabile));
-        }
-        
-        return translation;
+        Template template = Lang.find(language, phrase);
+        if (template == null)
+            return language + "_" + phrase;
+        return template.render(vars);
     }
     
     /**
@@ -203,4 +226,96 @@ public class Lang {
         else
             return Lang.instance = new Lang();
     }
+    
+    /**
+     * Translated phrase split to literal parts and <code>{variable}</code> placeholders.
+     */
+    public static final class Template {
+        private final String   text;
+        /**
+         * Literal parts, there is one more literal than placeholders.
+         */
+        private final String[] literals;
+        private final String[] names;
+        
+        private Template(final String text, final String[] literals, final String[] names) {
+            this.text = text;
+            this.literals = literals;
+            this.names = names;
+        }
+        
+        /**
+         * Parses specified phrase to template.
+         * 
+         * @param text
+         *            phrase with placeholders
+         * @return template
+         */
+        public static Template parse(final String text) {
+            List<String> literals = new ArrayList<String>();
+            List<String> names = new ArrayList<String>();
+            int literalStart = 0;
+            int open = text.indexOf('{');
+            while (open != -1) {
+                int close = text.indexOf('}', open + 1);
+                if (close == -1)
+                    break;
+                int nested = text.lastIndexOf('{', close);
+                if (close > nested + 1) {
+                    literals.add(text.substring(literalStart, nested));
+                    names.add(text.substring(nested + 1, close));
+                    literalStart = close + 1;
+                }
+                open = text.indexOf('{', close + 1);
+            }
+            literals.add(text.substring(literalStart));
+            return new Template(text, literals.toArray(new String[literals.size()]),
+                    names.toArray(new String[names.size()]));
+        }
+        
+        /**
+         * Returns phrase without replaced placeholders.
+         * 
+         * @return phrase
+         */
+        public String getText() {
+            return this.text;
+        }
+        
+        /**
+         * Renders phrase with placeholders replaced by specified values in one pass. Placeholders without value are
+         * kept.
+         * 
+         * @param vars
+         *            values of placeholders
+         * @return rendered phrase
+         */
+        public String render(final Map<String, String> vars) {
+            if (this.names.length == 0)
+                return this.text;
+            
+            StringBuilder builder = Lang.builders.get();
+            builder.setLength(0);
+            for (int i = 0; i < this.names.length; i++) {
+                builder.append(this.literals[i]);
+                String value = vars.get(this.names[i]);
+                if (value == null)
+                    builder.append('{').append(this.names[i]).append('}');
+                else
+                    builder.append(value);
+            }
+            builder.append(this.literals[this.names.length]);
+            return builder.toString();
+        }
+    }
+    
+    /**
+     * Reusable builder of each thread.
+     */
+    private static final class Builders extends ThreadLocal<StringBuilder> {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    }
 }
@@ -18,16 +18,21 @@
 // @formatter:on
 package eu.matejkormuth.pexel.PexelCore.util;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 
 import eu.matejkormuth.pexel.PexelCore.Pexel;
+import eu.matejkormuth.pexel.PexelCore.core.MoveHandler;
+import eu.matejkormuth.pexel.PexelCore.core.MoveType;
 
 /**
  * Utility class that help freezing of players.
@@ -35,16 +40,16 @@ import eu.matejkormuth.pexel.PexelCore.Pexel;
  * @author Mato Kormuth
  * 
  */
-public class PlayerFreezer implements Listener {
+public class PlayerFreezer implements Listener, MoveHandler {
     /**
-     * List of frozen textures. <br/>
-     * FIXME: Remove 'dead' disconnected player objects.
+     * UUIDs of frozen players.
      */
-    private final List<Player> frozen_movement = new ArrayList<Player>();
-    private final List<Player> frozen_rotation = new ArrayList<Player>();
+    private final Set<UUID> frozen_movement = new HashSet<UUID>();
+    private final Set<UUID> frozen_rotation = new HashSet<UUID>();
     
     public PlayerFreezer() {
         Bukkit.getPluginManager().registerEvents(this, Pexel.getCore());
+        Pexel.getMovePipeline().register(MoveType.ROTATION, this);
     }
     
     /**
@@ -58,9 +63,9 @@ public class PlayerFreezer implements Listener {
     }
     
     public void freeze(final Player player, final boolean rotation) {
-        this.frozen_movement.add(player);
+        this.frozen_movement.add(player.getUniqueId());
         if (rotation)
-            this.frozen_rotation.add(player);
+            this.frozen_rotation.add(player.getUniqueId());
     }
     
     /**
@@ -70,13 +75,30 @@ public class PlayerFreezer implements Listener {
      *            player to unfreeze
      */
     public void unfreeze(final Player player) {
-        this.frozen_movement.remove(player);
-        this.frozen_rotation.remove(player);
+        this.frozen_movement.remove(player.getUniqueId());
+        this.frozen_rotation.remove(player.getUniqueId());
     }
     
-    @EventHandler
-    private void onPlayerMove(final PlayerMoveEvent event) {
-        if (this.frozen_movement.contains(event.getPlayer()))
+    @Override
+    public void onPlayerMove(final PlayerMoveEvent event, final MoveType type) {
+        if (this.frozen_movement.isEmpty()
+                || !this.frozen_movement.contains(event.getPlayer().getUniqueId()))
+            return;
+        
+        if (this.frozen_rotation.contains(event.getPlayer().getUniqueId())) {
             event.setTo(event.getFrom());
+        }
+        else if (type != MoveType.ROTATION) {
+            // Keep rotation of player.
+            Location to = event.getFrom().clone();
+            to.setYaw(event.getTo().getYaw());
+            to.setPitch(event.getTo().getPitch());
+            event.setTo(to);
+        }
+    }
+    
+    @EventHandler
+    private void onPlayerQuit(final PlayerQuitEvent event) {
+        this.unfreeze(event.getPlayer());
     }
 }
@@ -0,0 +1,155 @@
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProfileStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private static void write(final ProfileStore store, final UUID uuid) throws IOException {
+        store.write(Collections.singletonMap(uuid, new PlayerProfile(uuid).snapshot()));
+    }
+    
+    private File segment() {
+        File[] files = this.folder.getRoot().listFiles();
+        assertEquals("segments", 1, files.length);
+        return files[0];
+    }
+    
+    @Test
+    public void damagedRecordIsCutOff() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        ProfileStore store = new ProfileStore(this.folder.getRoot());
+        store.open();
+        ProfileStoreTest.write(store, first);
+        long valid = this.segment().length();
+        ProfileStoreTest.write(store, second);
+        store.close();
+        
+        // Damage last byte of second record.
+        try (RandomAccessFile raf = new RandomAccessFile(this.segment(), "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+        
+        store = new ProfileStore(this.folder.getRoot());
+        store.open();
+        assertTrue("first profile", store.contains(first));
+        assertFalse("damaged profile", store.contains(second));
+        assertEquals("first profile uuid", first, store.read(first).getUniqueId());
+        assertEquals("segment cut off", valid, this.segment().length());
+        
+        // Records written after recovery are not hidden by damaged one.
+        ProfileStoreTest.write(store, second);
+        store.close();
+        store = new ProfileStore(this.folder.getRoot());
+        store.open();
+        assertTrue("rewritten profile", store.contains(second));
+        assertEquals("profiles", 2, store.size());
+        store.close();
+    }
+    
+    @Test
+    public void damagedRecordInSealedSegmentIsSkipped() throws IOException {
+        UUID[] uuids = new UUID[4];
+        for (int i = 0; i < uuids.length; i++)
+            uuids[i] = UUID.randomUUID();
+        ProfileStore store = new ProfileStore(this.folder.getRoot());
+        store.open();
+        for (UUID uuid : uuids)
+            ProfileStoreTest.write(store, uuid);
+        store.close();
+        File sealed = this.segment();
+        long length = sealed.length();
+        int record = (int) length / uuids.length;
+        
+        // Damage data of second record, then start new active segment.
+        try (RandomAccessFile raf = new RandomAccessFile(sealed, "rw")) {
+            raf.seek(record + record - 1);
+            int last = raf.read();
+            raf.seek(record + record - 1);
+            raf.write(last ^ 0xFF);
+        }
+        assertTrue("active segment", new File(this.folder.getRoot(), "00000001.seg").createNewFile());
+        
+        store = new ProfileStore(this.folder.getRoot());
+        store.open();
+        assertTrue("record before damage", store.contains(uuids[0]));
+        assertFalse("damaged record", store.contains(uuids[1]));
+        assertEquals("record after damage", uuids[2], store.read(uuids[2]).getUniqueId());
+        assertEquals("last record", uuids[3], store.read(uuids[3]).getUniqueId());
+        store.close();
+        assertEquals("sealed segment not cut off", length, sealed.length());
+    }
+    
+    @Test
+    public void compactionKeepsNewestRecords() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        ProfileStore store = new ProfileStore(this.folder.getRoot());
+        store.open();
+        ProfileStoreTest.write(store, first);
+        ProfileStoreTest.write(store, second);
+        ProfileStoreTest.write(store, first);
+        assertEquals("read after append", first, store.read(first).getUniqueId());
+        long live = store.getLiveBytes();
+        
+        store.compact();
+        assertEquals("live bytes", live, store.getLiveBytes());
+        assertEquals("total bytes", live, store.getTotalBytes());
+        assertEquals("first record", first, store.read(first).getUniqueId());
+        assertEquals("second record", second, store.read(second).getUniqueId());
+        UUID third = UUID.randomUUID();
+        ProfileStoreTest.write(store, third);
+        assertEquals("record written after compaction", third, store.read(third).getUniqueId());
+        store.close();
+        
+        store = new ProfileStore(this.folder.getRoot());
+        store.open();
+        assertEquals("profiles", 3, store.size());
+        assertEquals("reopened record", first, store.read(first).getUniqueId());
+        store.close();
+    }
+    
+    @Test
+    public void strayFileIsSkipped() throws IOException {
+        UUID uuid = UUID.randomUUID();
+        ProfileStore store = new ProfileStore(this.folder.getRoot());
+        store.open();
+        ProfileStoreTest.write(store, uuid);
+        store.close();
+        assertTrue("stray file", new File(this.folder.getRoot(), "backup.seg").createNewFile());
+        
+        store = new ProfileStore(this.folder.getRoot());
+        store.open();
+        assertTrue("profile", store.contains(uuid));
+        store.close();
+    }
+    
+    @Test
+    public void closedStoreRejectsWrites() {
+        ProfileStore store = new ProfileStore(this.folder.getRoot());
+        try {
+            ProfileStoreTest.write(store, UUID.randomUUID());
+            fail("write to not opened store");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.util.Vector;
+
+/**
+ * Microbenchmark of the region check done on protection path of EventProcessor (search of area, that contains
+ * location of event). Compares the previous {@link Region#intersects(Location)}, which compared world names and
+ * allocated vector, with {@link Region#contains(World, double, double, double)}. Not part of test suite, run as plain
+ * java application.
+ */
+public class RegionBenchmark {
+    private static final int REGIONS    = 300;
+    private static final int POINTS     = 4096;
+    private static final int ITERATIONS = 2000;
+    private static final int ROUNDS     = 5;
+    
+    public static void main(final String[] args) {
+        World world = RegionBenchmark.world("world");
+        
+        Random random = new Random(42);
+        List<Region> regions = new ArrayList<Region>();
+        for (int i = 0; i < RegionBenchmark.REGIONS; i++) {
+            int x = random.nextInt(4000) - 2000;
+            int z = random.nextInt(4000) - 2000;
+            regions.add(new Region(new Vector(x, 0, z), new Vector(x + random.nextInt(100), 255,
+                    z + random.nextInt(100)), world));
+        }
+        
+        Location[] points = new Location[RegionBenchmark.POINTS];
+        for (int i = 0; i < points.length; i++)
+            points[i] = new Location(world, random.nextInt(4000) - 2000, random.nextInt(256),
+                    random.nextInt(4000) - 2000);
+        
+        // First rounds are warm-up, compare last one.
+        for (int round = 0; round < RegionBenchmark.ROUNDS; round++) {
+            System.out.println("Round " + (round + 1) + ":");
+            long start = System.nanoTime();
+            int hits = 0;
+            for (int i = 0; i < RegionBenchmark.ITERATIONS; i++)
+                for (Location point : points)
+                    if (RegionBenchmark.legacyFind(regions, point) != null)
+                        hits++;
+            RegionBenchmark.report("intersects", start, hits);
+            
+            start = System.nanoTime();
+            hits = 0;
+            for (int i = 0; i < RegionBenchmark.ITERATIONS; i++)
+                for (Location point : points)
+                    if (RegionBenchmark.find(regions, point) != null)
+                        hits++;
+            RegionBenchmark.report("contains", start, hits);
+        }
+    }
+    
+    /**
+     * Creates world, that only knows its name. Proxy is cheaper than mock, so name lookups cost about as much as on
+     * real server.
+     */
+    private static World world(final String name) {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(),
+                new Class<?>[] { World.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method,
+                            final Object[] args) {
+                        if (method.getName().equals("getName"))
+                            return name;
+                        if (method.getName().equals("hashCode"))
+                            return System.identityHashCode(proxy);
+                        if (method.getName().equals("equals"))
+                            return proxy == args[0];
+                        return null;
+                    }
+                });
+    }
+    
+    private static void report(final String name, final long start, final int hits) {
+        long ops = (long) RegionBenchmark.ITERATIONS * RegionBenchmark.POINTS;
+        System.out.println(String.format("  %-12s %8.1f ns/lookup (%d hits)", name,
+                (System.nanoTime() - start) / (double) ops, hits));
+    }
+    
+    private static Region find(final List<Region> regions, final Location loc) {
+        for (Region region : regions)
+            if (region.contains(loc.getWorld(), loc.getX(), loc.getY(), loc.getZ()))
+                return region;
+        return null;
+    }
+    
+    // Copy of the previous Region.intersects(Location) implementation.
+    private static Region legacyFind(final List<Region> regions, final Location loc) {
+        for (Region region : regions)
+            if (region.w.getName().equals(loc.getWorld().getName())) {
+                Vector v = loc.toVector();
+                if (RegionBenchmark.range(region.v1.getX(), region.v2.getX(), v.getX())
+                        && RegionBenchmark.range(region.v1.getY(), region.v2.getY(), v.getY())
+                        && RegionBenchmark.range(region.v1.getZ(), region.v2.getZ(), v.getZ()))
+                    return region;
+            }
+        return null;
+    }
+    
+    private static boolean range(final double min, final double max, final double value) {
+        if (max > min)
+            return (value <= max ? (value >= min ? true : false) : false);
+        else
+            return (value <= min ? (value >= max ? true : false) : false);
+    }
+}
@@ -0,0 +1,64 @@
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.bukkit.World;
+import org.bukkit.util.Vector;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class RegionIndexTest {
+    private static World world(final String name) {
+        World world = Mockito.mock(World.class);
+        Mockito.when(world.getName()).thenReturn(name);
+        return world;
+    }
+    
+    private static Region region(final World world, final int x1, final int z1, final int x2,
+            final int z2) {
+        return new Region(new Vector(x1, 0, z1), new Vector(x2, 100, z2), world);
+    }
+    
+    @Test
+    public void findsMostSpecificRegion() {
+        World world = RegionIndexTest.world("world");
+        RegionIndex<String> index = new RegionIndex<String>();
+        index.put("lobby", RegionIndexTest.region(world, -100, -100, 100, 100), "lobby");
+        index.put("arena", RegionIndexTest.region(world, -10, -10, 10, 10), "arena");
+        
+        assertEquals("inner region", "arena", index.find(world, 0, 50, 0));
+        assertEquals("outer region", "lobby", index.find(world, 50, 50, -50));
+        assertNull("outside", index.find(world, 150, 50, 0));
+        assertNull("above", index.find(world, 0, 101, 0));
+        assertNull("other world", index.find(RegionIndexTest.world("nether"), 0, 50, 0));
+    }
+    
+    @Test
+    public void oversizedRegionsAreFound() {
+        World world = RegionIndexTest.world("world");
+        RegionIndex<String> index = new RegionIndex<String>();
+        index.put("world", RegionIndexTest.region(world, -5000, -5000, 5000, 5000), "world");
+        index.put("arena", RegionIndexTest.region(world, 4000, 4000, 4010, 4010), "arena");
+        
+        assertEquals("oversized region", "world", index.find(world, -4999.5, 10, 4999.5));
+        assertEquals("region inside oversized one", "arena", index.find(world, 4005, 10, 4005));
+    }
+    
+    @Test
+    public void putReplacesAndRemoveDeletes() {
+        World world = RegionIndexTest.world("world");
+        World nether = RegionIndexTest.world("nether");
+        RegionIndex<String> index = new RegionIndex<String>();
+        index.put("arena", RegionIndexTest.region(world, 0, 0, 10, 10), "arena");
+        index.put("arena", RegionIndexTest.region(nether, 20, 20, 30, 30), "moved");
+        
+        assertEquals("size", 1, index.size());
+        assertNull("old region", index.find(world, 5, 50, 5));
+        assertEquals("new region", "moved", index.find(nether, 25, 50, 25));
+        
+        index.remove("arena");
+        assertEquals("size after remove", 0, index.size());
+        assertNull("removed region", index.find(nether, 25, 50, 25));
+    }
+}
@@ -0,0 +1,100 @@
+package eu.matejkormuth.pexel.PexelCore.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.util.Vector;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+public class RegionTest {
+    private static World world(final String name, final int maxHeight) {
+        World world = Mockito.mock(World.class);
+        Mockito.when(world.getName()).thenReturn(name);
+        Mockito.when(world.getMaxHeight()).thenReturn(maxHeight);
+        return world;
+    }
+    
+    private static ChunkSnapshot snapshot(final int cx, final int cz) {
+        ChunkSnapshot snapshot = Mockito.mock(ChunkSnapshot.class);
+        Mockito.when(snapshot.getX()).thenReturn(cx);
+        Mockito.when(snapshot.getZ()).thenReturn(cz);
+        return snapshot;
+    }
+    
+    @Test
+    public void containsPoints() {
+        World world = RegionTest.world("world", 256);
+        Region region = new Region(new Vector(10, 70, -5), new Vector(-3, 60, 4), world);
+        assertTrue("corner", region.contains(world, -3, 60, -5));
+        assertTrue("other corner", region.contains(world, 10, 70, 4));
+        assertTrue("inside", region.contains(world, 0.5, 65.5, -4.5));
+        assertFalse("below", region.contains(world, 0, 59.9, 0));
+        assertFalse("outside x", region.contains(world, 10.1, 65, 0));
+        assertFalse("other world", region.contains(RegionTest.world("nether", 256), 0, 65, 0));
+        assertTrue("reloaded world", region.contains(RegionTest.world("world", 256), 0, 65, 0));
+        
+        assertTrue("block", region.contains(-3, 60, 4));
+        assertFalse("block outside", region.contains(-4, 60, 4));
+        assertFalse("block above", region.contains(0, 71, 0));
+    }
+    
+    @Test
+    public void visitorsClampToWorldHeight() {
+        World world = RegionTest.world("world", 128);
+        Chunk chunk = Mockito.mock(Chunk.class);
+        Mockito.when(world.getChunkAt(0, 0)).thenReturn(chunk);
+        Mockito.when(chunk.getBlock(Matchers.anyInt(), Matchers.anyInt(), Matchers.anyInt())).thenReturn(
+                Mockito.mock(Block.class));
+        Region region = new Region(new Vector(0, -10, 0), new Vector(1, 300, 1), world);
+        assertEquals("from y", 0, region.getFromY());
+        assertEquals("to y", 127, region.getToY());
+        
+        final int[] blocks = new int[1];
+        assertTrue("all blocks visited", region.forEachBlock(new BlockVisitor() {
+            @Override
+            public boolean visit(final Block block) {
+                blocks[0]++;
+                return true;
+            }
+        }));
+        final int[] snapshotBlocks = new int[2];
+        region.forEachBlock(Arrays.asList(RegionTest.snapshot(0, 0)), new SnapshotVisitor() {
+            @Override
+            public boolean visit(final ChunkSnapshot snapshot, final int x, final int y, final int z) {
+                snapshotBlocks[0]++;
+                snapshotBlocks[1] = Math.max(snapshotBlocks[1], y);
+                return true;
+            }
+        });
+        assertEquals("visited blocks", 2 * 2 * 128, blocks[0]);
+        assertEquals("visited snapshot blocks", blocks[0], snapshotBlocks[0]);
+        assertEquals("highest snapshot y", 127, snapshotBlocks[1]);
+    }
+    
+    @Test
+    public void snapshotVisitorStops() {
+        Region region = new Region(new Vector(0, 0, 0), new Vector(31, 10, 15),
+                RegionTest.world("world", 256));
+        final int[] visited = new int[1];
+        boolean finished = region.forEachBlock(
+                Arrays.asList(RegionTest.snapshot(0, 0), RegionTest.snapshot(1, 0)),
+                new SnapshotVisitor() {
+                    @Override
+                    public boolean visit(final ChunkSnapshot snapshot, final int x, final int y,
+                            final int z) {
+                        return ++visited[0] < 5;
+                    }
+                });
+        assertFalse("stopped", finished);
+        assertEquals("visited blocks", 5, visited[0]);
+    }
+}
@@ -0,0 +1,120 @@
+package eu.matejkormuth.pexel.PexelCore.rollback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class BlockJournalTest {
+    private static Block block(final World world, final int x, final int y, final int z) {
+        Block block = Mockito.mock(Block.class);
+        Mockito.when(block.getWorld()).thenReturn(world);
+        Mockito.when(block.getX()).thenReturn(x);
+        Mockito.when(block.getY()).thenReturn(y);
+        Mockito.when(block.getZ()).thenReturn(z);
+        return block;
+    }
+    
+    @Test
+    public void packAndUnpack() {
+        int[][] coordinates = { { 0, 0, 0 }, { 1, 255, -1 }, { -30000000, 64, 30000000 },
+                { 33554431, 1, -33554432 }, { -17, 100, 15 } };
+        for (int slot = 0; slot < 8; slot++)
+            for (int[] c : coordinates) {
+                long position = BlockJournal.pack(slot, c[0], c[1], c[2]);
+                assertEquals("world", slot, BlockJournal.unpackWorld(position));
+                assertEquals("x", c[0], BlockJournal.unpackX(position));
+                assertEquals("y", c[1], BlockJournal.unpackY(position));
+                assertEquals("z", c[2], BlockJournal.unpackZ(position));
+            }
+    }
+    
+    @Test
+    public void chunkOf() {
+        long chunk = BlockJournal.chunkOf(BlockJournal.pack(2, -17, 100, 35));
+        assertEquals("world", 2, BlockJournal.unpackWorld(chunk));
+        assertEquals("chunk x", -2, BlockJournal.unpackX(chunk) >> 4);
+        assertEquals("chunk z", 2, BlockJournal.unpackZ(chunk) >> 4);
+        assertEquals("y", 0, BlockJournal.unpackY(chunk));
+        assertEquals("same chunk", chunk, BlockJournal.chunkOf(BlockJournal.pack(2, -32, 0, 47)));
+    }
+    
+    @Test
+    public void onlyFirstChangeIsKept() {
+        World world = Mockito.mock(World.class);
+        World other = Mockito.mock(World.class);
+        BlockJournal journal = new BlockJournal();
+        assertTrue("first change", journal.record(world, 1, 2, 3, 1, (byte) 0));
+        assertFalse("second change", journal.record(world, 1, 2, 3, 4, (byte) 5));
+        assertTrue("other world", journal.record(other, 1, 2, 3, 7, (byte) 0));
+        assertEquals("size", 2, journal.size());
+        assertEquals("original type", 1, journal.getType(0));
+        assertEquals("original data", 0, journal.getData(0));
+        assertTrue("contains", journal.contains(BlockJournalTest.block(world, 1, 2, 3)));
+        assertFalse("does not contain", journal.contains(BlockJournalTest.block(world, 1, 3, 3)));
+        
+        // Many blocks force rehash.
+        for (int i = 0; i < 1000; i++)
+            journal.record(world, i, 10, -i, i, (byte) 1);
+        for (int i = 0; i < 1000; i++)
+            assertFalse("recorded after rehash", journal.record(world, i, 10, -i, 0, (byte) 0));
+        assertEquals("size after rehash", 1002, journal.size());
+    }
+    
+    @Test
+    public void forgottenBlockIsRecordedAgain() {
+        World world = Mockito.mock(World.class);
+        BlockJournal journal = new BlockJournal();
+        for (int i = 0; i < 100; i++)
+            journal.record(world, i, 0, 0, 1, (byte) 0);
+        for (int i = 0; i < 100; i += 2)
+            journal.forget(journal.getPosition(i));
+        for (int i = 0; i < 100; i++)
+            assertEquals("contains " + i, i % 2 == 1,
+                    journal.contains(BlockJournalTest.block(world, i, 0, 0)));
+        journal.forget(world, 1, 0, 0);
+        assertTrue("recorded again", journal.record(world, 1, 0, 0, 2, (byte) 0));
+        assertEquals("changes stay", 101, journal.size());
+        assertEquals("new state", 2, journal.getType(100));
+    }
+    
+    @Test
+    public void groupByChunk() {
+        World world = Mockito.mock(World.class);
+        BlockJournal journal = new BlockJournal();
+        int[] xs = { 0, 16, 1, 32, 17, 2 };
+        for (int i = 0; i < xs.length; i++)
+            journal.record(world, xs[i], 0, 0, i, (byte) 0);
+        journal.groupByChunk(1);
+        int[] expected = { 0, 16, 17, 1, 2, 32 };
+        int[] types = { 0, 1, 4, 2, 5, 3 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("x " + i, expected[i], BlockJournal.unpackX(journal.getPosition(i)));
+            assertEquals("type " + i, types[i], journal.getType(i));
+        }
+    }
+    
+    @Test
+    public void partition() {
+        World world = Mockito.mock(World.class);
+        BlockJournal journal = new BlockJournal();
+        int[] xs = { 0, 16, 1, 32, 17, 2 };
+        for (int i = 0; i < xs.length; i++)
+            journal.record(world, xs[i], 0, 0, i, (byte) 0);
+        Set<Long> chunks = new HashSet<Long>(Collections.singleton(BlockJournal.chunkOf(journal.getPosition(0))));
+        int start = journal.partition(1, chunks);
+        assertEquals("start of moved", 4, start);
+        int[] expected = { 0, 16, 32, 17, 1, 2 };
+        for (int i = 0; i < expected.length; i++)
+            assertEquals("x " + i, expected[i], BlockJournal.unpackX(journal.getPosition(i)));
+        assertEquals("type of moved", 2, journal.getType(4));
+    }
+}
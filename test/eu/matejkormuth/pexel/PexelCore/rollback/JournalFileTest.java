@@ -0,0 +1,96 @@
+package eu.matejkormuth.pexel.PexelCore.rollback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+public class JournalFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private World          world;
+    
+    @BeforeClass
+    public static void setServer() {
+        // Server can be set only once per JVM.
+        if (Bukkit.getServer() == null) {
+            Server server = Mockito.mock(Server.class);
+            Mockito.when(server.getLogger()).thenReturn(Logger.getLogger("Server"));
+            Bukkit.setServer(server);
+        }
+    }
+    
+    @Before
+    public void loadWorld() {
+        this.world = Mockito.mock(World.class);
+        Mockito.when(this.world.getName()).thenReturn("arenas");
+        Mockito.when(Bukkit.getServer().getWorld("arenas")).thenReturn(this.world);
+    }
+    
+    // Writes two batches, first with two changes, second with one.
+    private File write() throws IOException {
+        File file = new File(this.folder.getRoot(), "arena.journal");
+        JournalFile journal = new JournalFile(null, file, "arena");
+        journal.create();
+        journal.append(this.world, 1, 2, 3, 1, (byte) 0);
+        journal.append(this.world, -4, 5, -6, 2, (byte) 3);
+        journal.writeBatch(journal.takeBatch());
+        journal.append(this.world, 7, 8, 9, 4, (byte) 0);
+        journal.writeBatch(journal.takeBatch());
+        journal.close();
+        return file;
+    }
+    
+    @Test
+    public void writtenBatchesAreRead() throws IOException {
+        BlockRollbacker rollbacker = JournalFile.read(this.write());
+        assertEquals("name", "arena", rollbacker.getName());
+        assertEquals("changes", 3, rollbacker.getPendingChanges());
+    }
+    
+    @Test
+    public void tornBatchIsIgnored() throws IOException {
+        File file = this.write();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        assertEquals("changes", 2, JournalFile.read(file).getPendingChanges());
+    }
+    
+    @Test
+    public void damagedBatchIsIgnored() throws IOException {
+        File file = this.write();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 1);
+        }
+        assertEquals("changes", 2, JournalFile.read(file).getPendingChanges());
+    }
+    
+    @Test
+    public void unloadedWorldFails() throws IOException {
+        File file = this.write();
+        Mockito.when(Bukkit.getServer().getWorld("arenas")).thenReturn(null);
+        try {
+            JournalFile.read(file);
+            fail("journal of unloaded world was read");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package eu.matejkormuth.pexel.PexelCore.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CacheHelperTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private CacheHelper<String> open(final File file) {
+        return new CacheHelper<String>("test", Codecs.STRING, file);
+    }
+    
+    @Test
+    public void committedValuesAreLoaded() throws IOException {
+        File file = new File(this.folder.getRoot(), "test.cache");
+        CacheHelper<String> cache = this.open(file);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.commit();
+        cache.put("a", "3");
+        cache.remove("b");
+        cache.commit();
+        
+        cache = this.open(file);
+        assertFalse("readable", cache.needsRebuild());
+        assertEquals("overwritten value", "3", cache.get("a"));
+        assertNull("removed value", cache.get("b"));
+        assertEquals("count", 1, cache.getCount());
+    }
+    
+    @Test
+    public void tornTailIsCutOff() throws IOException {
+        File file = new File(this.folder.getRoot(), "test.cache");
+        CacheHelper<String> cache = this.open(file);
+        cache.put("a", "1");
+        cache.commit();
+        long valid = file.length();
+        
+        // Record header, that claims more data than file has.
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] { 1, 2, 3, 4, 0, 0, 0, 1, 0, 0, 0, 100, 'b' });
+        }
+        
+        cache = this.open(file);
+        assertFalse("readable", cache.needsRebuild());
+        assertEquals("value before torn record", "1", cache.get("a"));
+        assertEquals("file cut off", valid, file.length());
+        
+        // Records committed after recovery are not hidden by torn one.
+        cache.put("b", "2");
+        cache.commit();
+        cache = this.open(file);
+        assertEquals("first value", "1", cache.get("a"));
+        assertEquals("value after recovery", "2", cache.get("b"));
+    }
+    
+    @Test
+    public void damagedRecordIsCutOff() throws IOException {
+        File file = new File(this.folder.getRoot(), "test.cache");
+        CacheHelper<String> cache = this.open(file);
+        cache.put("a", "1");
+        cache.commit();
+        long valid = file.length();
+        cache.put("b", "2");
+        cache.commit();
+        
+        // Damage last byte of value of second record.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            raf.write('x');
+        }
+        
+        cache = this.open(file);
+        assertEquals("valid value", "1", cache.get("a"));
+        assertNull("damaged value", cache.get("b"));
+        assertEquals("file cut off", valid, file.length());
+    }
+}
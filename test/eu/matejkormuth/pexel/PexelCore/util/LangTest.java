@@ -0,0 +1,52 @@
+package eu.matejkormuth.pexel.PexelCore.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LangTest {
+    private static Map<String, String> vars(final String... pairs) {
+        Map<String, String> vars = new HashMap<String, String>();
+        for (int i = 0; i < pairs.length; i += 2)
+            vars.put(pairs[i], pairs[i + 1]);
+        return vars;
+    }
+    
+    @Test
+    public void renderReplacesPlaceholders() {
+        Lang.Template template = Lang.Template.parse("{player} joined {arena} ({count}/{max})");
+        assertEquals("rendered", "dobrakmato joined Arena1 (3/16)", template.render(LangTest.vars(
+                "player", "dobrakmato", "arena", "Arena1", "count", "3", "max", "16")));
+        assertEquals("text", "{player} joined {arena} ({count}/{max})", template.getText());
+    }
+    
+    @Test
+    public void missingValuesAreKept() {
+        Lang.Template template = Lang.Template.parse("Hello {player}, you have {points} points.");
+        assertEquals("rendered", "Hello {player}, you have 10 points.",
+                template.render(LangTest.vars("points", "10")));
+    }
+    
+    @Test
+    public void textWithoutPlaceholders() {
+        String text = "No placeholders here.";
+        Lang.Template template = Lang.Template.parse(text);
+        assertSame("same text", text, template.render(LangTest.vars("a", "b")));
+    }
+    
+    @Test
+    public void unusualBraces() {
+        assertEquals("empty braces", "a {} b",
+                Lang.Template.parse("a {} b").render(LangTest.vars("", "x")));
+        assertEquals("unclosed brace", "a {b",
+                Lang.Template.parse("a {b").render(LangTest.vars("b", "x")));
+        assertEquals("nested brace", "{x}", Lang.Template.parse("{{b}}").render(
+                LangTest.vars("b", "x")));
+        assertEquals("adjacent", "xy", Lang.Template.parse("{a}{b}").render(
+                LangTest.vars("a", "x", "b", "y")));
+    }
+}